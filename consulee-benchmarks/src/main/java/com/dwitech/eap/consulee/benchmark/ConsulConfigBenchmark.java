@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.benchmark;
+
+import com.dwitech.eap.consulee.client.ConsulConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Benchmarks the serialization of the configuration logged at registration and discovery.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsulConfigBenchmark {
+    private final ConsulConfig consulConfig = new ConsulConfig();
+
+    @Setup
+    public void setUp() {
+        consulConfig.setServiceId("benchmark-1");
+        consulConfig.setServiceName("benchmark");
+        consulConfig.setServiceHost("10.0.0.1");
+        consulConfig.setServicePort("8080");
+        consulConfig.setServiceTTL("10");
+        consulConfig.setServiceRoot("/api");
+        consulConfig.setConsulHost("localhost");
+        consulConfig.setConsulPort("8500");
+    }
+
+    @Benchmark
+    public String toJSON() {
+        return consulConfig.toJSON();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.benchmark;
+
+import com.dwitech.eap.consulee.ConsulConfiguration;
+import com.dwitech.eap.consulee.client.ClientRegistry;
+import com.dwitech.eap.consulee.client.ConsulConfig;
+import com.dwitech.eap.consulee.client.ConsulServiceClient;
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+import com.dwitech.eap.consulee.service.ConsulService;
+import com.dwitech.eap.consulee.service.ConsulServiceDiscovery;
+import com.dwitech.eap.consulee.service.ServiceHealthCache;
+import com.dwitech.eap.consulee.testing.StubConsulAgent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.client.WebTarget;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Benchmarks the discovery hot paths against a {@link StubConsulAgent}.
+ * Reports throughput and sampled latency percentiles; run with {@code -prof gc} for the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiscoveryBenchmark {
+    private static final String SERVICE_NAME = "benchmark";
+
+    @Param({"10", "100"})
+    private int instances;
+
+    private StubConsulAgent agent;
+    private ConsulService consulService;
+    private ConsulServiceDiscovery discovery;
+    private ConsulServiceClient client;
+    private final Set<String> serviceNames = Collections.singleton(SERVICE_NAME);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        agent = new StubConsulAgent(instances);
+        System.setProperty("consulHost", agent.getHost());
+        System.setProperty("consulPort", agent.getPort());
+        ConsulConfiguration.reload();
+        consulService = new ConsulService(agent.getHost(), agent.getPort());
+        discovery = new ConsulServiceDiscovery(SERVICE_NAME);
+        client = new ConsulServiceClient(SERVICE_NAME);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ServiceHealthCache.getInstance().shutdown();
+        ClientRegistry.getInstance().close();
+        agent.close();
+    }
+
+    @Benchmark
+    public Set<DiscoveryResult> discoverHealthyNodes() throws IOException {
+        return consulService.discoverHealthyNodes(serviceNames);
+    }
+
+    @Benchmark
+    public WebTarget getServiceRoot() {
+        return client.getServiceRoot();
+    }
+
+    @Benchmark
+    public ConsulConfig readConfiguration() {
+        return discovery.readConfiguration();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.benchmark;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+import com.dwitech.eap.consulee.service.ModelHealthResponseDecoder;
+import com.dwitech.eap.consulee.service.ProjectionHealthResponseDecoder;
+import com.dwitech.eap.consulee.testing.HealthPayloads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Set;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Compares the full-model and the projection decoders of the health response.
+ * Run with {@code -prof gc} to compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HealthDecoderBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int instances;
+
+    private byte[] payload;
+    private final ModelHealthResponseDecoder modelDecoder = new ModelHealthResponseDecoder();
+    private final ProjectionHealthResponseDecoder projectionDecoder = new ProjectionHealthResponseDecoder();
+
+    @Setup
+    public void setUp() {
+        payload = HealthPayloads.healthResponseBytes("benchmark", instances);
+    }
+
+    @Benchmark
+    public Set<DiscoveryResult> model() throws IOException {
+        return modelDecoder.decode(new ByteArrayInputStream(payload));
+    }
+
+    @Benchmark
+    public Set<DiscoveryResult> projection() throws IOException {
+        return projectionDecoder.decode(new ByteArrayInputStream(payload));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.load;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds, with 64 buckets per power of two, i.e. a precision of about 1.5%.
+ * Not thread-safe: each caller records into its own histogram, merged for the report.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 64;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+    private final long[] counts = new long[index(Long.MAX_VALUE) + 1];
+    private long total;
+    private long max;
+
+    /**
+     * @param nanos the latency to record
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0L, nanos);
+        counts[index(value)]++;
+        total++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the latencies recorded by another histogram.
+     * @param other the histogram to add
+     */
+    public void merge(final LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency below which the given percentage of the recorded latencies fall, in nanoseconds
+     */
+    public long percentile(final double percentile) {
+        final long rank = (long) Math.ceil(percentile / 100d * total);
+        long seen = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0L) {
+                return Math.min(max, value(i));
+            }
+        }
+        return max;
+    }
+
+    private static int index(final long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        return SUB_BUCKETS * shift + (int) (value >>> shift);
+    }
+
+    // the upper bound of a bucket
+    private static long value(final int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        return ((long) (index - SUB_BUCKETS * shift) + 1L << shift) - 1L;
+    }
+}
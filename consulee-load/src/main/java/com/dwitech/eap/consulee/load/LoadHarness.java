@@ -0,0 +1,264 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.load;
+
+import com.dwitech.eap.consulee.ConsulConfiguration;
+import com.dwitech.eap.consulee.client.ClientRegistry;
+import com.dwitech.eap.consulee.client.ConsulServiceClient;
+import com.dwitech.eap.consulee.client.ConsulServiceUnavailableException;
+import com.dwitech.eap.consulee.service.ServiceHealthCache;
+import com.dwitech.eap.consulee.testing.StubConsulAgent;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newScheduledThreadPool;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Load and soak harness of the discovery, run against a {@link StubConsulAgent}.
+ * <p>
+ * N callers look up the service roots of M services through {@link ConsulServiceClient}, while instances of random services
+ * register and deregister at a fixed rate. Progress is printed periodically; the final report gives the lookup latency
+ * percentiles, the request rate seen by the agent, the heap growth and the ratio of lookups returning an instance
+ * that was already deregistered.
+ * <p>
+ * Options are given as {@code --name=value}: {@code callers} (64), {@code services} (100), {@code instances} (10) synthetic
+ * instances per service, {@code churn} (20) registrations and deregistrations per second, {@code duration} (60) and
+ * {@code report} (5) in seconds, and {@code maxWait} (10000), {@code latency} (0) in milliseconds and {@code failureRate} (0)
+ * of the agent. Any other option is set as a system property, so that strategies can be compared,
+ * e.g. {@code --loadBalancer=least-outstanding-requests --consulWatchWait=10}.
+ */
+public final class LoadHarness {
+    private static final String SERVICE_PREFIX = "load-";
+    private static final int FIRST_CHURN_PORT = 20000;
+
+    private final Map<String, String> options;
+    private final int services;
+    private final ConsulServiceClient[] clients;
+    private final Map<String, Set<Integer>> livePorts = new ConcurrentHashMap<>();
+    private final AtomicInteger nextPort = new AtomicInteger(FIRST_CHURN_PORT);
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder registrations = new LongAdder();
+    private final LongAdder deregistrations = new LongAdder();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private StubConsulAgent agent;
+
+    private LoadHarness(final Map<String, String> options) {
+        this.options = options;
+        this.services = option("services", 100);
+        this.clients = new ConsulServiceClient[services];
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Options are given as --name=value, not " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new LoadHarness(options).run();
+        // the discovery threads are daemons, the JAX-RS client ones may not be
+        System.exit(0);
+    }
+
+    private void run() throws IOException, InterruptedException {
+        final int callers = option("callers", 64);
+        final int churn = option("churn", 20);
+        final long duration = SECONDS.toNanos(option("duration", 60));
+        final long reportInterval = SECONDS.toNanos(option("report", 5));
+
+        agent = new StubConsulAgent(option("instances", 10))
+                .setMaxWait(option("maxWait", 10000))
+                .setLatency(option("latency", 0))
+                .setFailureRate(Double.parseDouble(options.getOrDefault("failureRate", "0")));
+        System.setProperty("consulHost", agent.getHost());
+        System.setProperty("consulPort", agent.getPort());
+        options.forEach((name, value) -> {
+            if (!isHarnessOption(name)) {
+                System.setProperty(name, value);
+            }
+        });
+        ConsulConfiguration.reload();
+        for (int i = 0; i < services; i++) {
+            livePorts.put(SERVICE_PREFIX + i, ConcurrentHashMap.newKeySet());
+            clients[i] = new ConsulServiceClient(SERVICE_PREFIX + i);
+        }
+        System.out.printf("%d callers, %d services, %s instances each, %d changes/s for %ds against %s:%s%n",
+                callers, services, options.getOrDefault("instances", "10"), churn, NANOSECONDS.toSeconds(duration), agent.getHost(), agent.getPort());
+
+        final long heapBefore = usedHeapAfterGc();
+        final long requestsBefore = agent.getRequestCount();
+        final ScheduledExecutorService scheduler = newScheduledThreadPool(2);
+        if (churn > 0) {
+            scheduler.scheduleAtFixedRate(this::churn, 0L, SECONDS.toNanos(1) / churn, NANOSECONDS);
+        }
+        final long start = System.nanoTime();
+        final long deadline = start + duration;
+        scheduler.scheduleAtFixedRate(new Reporter(start), reportInterval, reportInterval, NANOSECONDS);
+
+        final ExecutorService callerPool = newFixedThreadPool(callers);
+        final List<Future<LatencyHistogram>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(callerPool.submit(() -> call(deadline)));
+        }
+        final LatencyHistogram latencies = new LatencyHistogram();
+        for (Future<LatencyHistogram> result : results) {
+            try {
+                latencies.merge(result.get());
+            } catch (ExecutionException eExc) {
+                throw new IllegalStateException("A caller failed", eExc.getCause());
+            }
+        }
+        final double elapsed = (System.nanoTime() - start) / 1e9;
+        final long requests = agent.getRequestCount() - requestsBefore;
+        scheduler.shutdownNow();
+        callerPool.shutdownNow();
+        final long heapAfter = usedHeapAfterGc();
+
+        System.out.printf("%nlookups      %d (%.0f/s), %d failed%n", latencies.getCount(), latencies.getCount() / elapsed, errors.sum());
+        System.out.printf("latency      p50 %.1fus, p99 %.1fus, p999 %.1fus, max %.1fus%n", latencies.percentile(50) / 1e3,
+                latencies.percentile(99) / 1e3, latencies.percentile(99.9) / 1e3, latencies.getMax() / 1e3);
+        System.out.printf("agent        %d requests (%.1f/s)%n", requests, requests / elapsed);
+        System.out.printf("churn        %d registrations, %d deregistrations%n", registrations.sum(), deregistrations.sum());
+        System.out.printf("stale hits   %d (%.4f%%)%n", staleHits.sum(), 100d * staleHits.sum() / Math.max(1L, lookups.sum()));
+        System.out.printf("heap         %.1fMB before, %.1fMB after, %+.1fMB%n", heapBefore / 1048576d, heapAfter / 1048576d,
+                (heapAfter - heapBefore) / 1048576d);
+
+        // the watches in flight fail once the agent is closed
+        Logger.getLogger("com.dwitech.eap.consulee").setLevel(Level.SEVERE);
+        ServiceHealthCache.getInstance().shutdown();
+        ClientRegistry.getInstance().close();
+        agent.close();
+    }
+
+    private LatencyHistogram call(final long deadline) {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            final int service = random.nextInt(services);
+            final long start = System.nanoTime();
+            try {
+                final URI uri = clients[service].getServiceRoot().getUri();
+                latencies.record(System.nanoTime() - start);
+                lookups.increment();
+                // the synthetic instances never leave, the registered ones are served by the agent itself
+                if (uri.getHost().equals(agent.getHost()) && !livePorts.get(SERVICE_PREFIX + service).contains(uri.getPort())) {
+                    staleHits.increment();
+                }
+            } catch (ConsulServiceUnavailableException csuExc) {
+                latencies.record(System.nanoTime() - start);
+                errors.increment();
+            }
+        }
+        return latencies;
+    }
+
+    private void churn() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final String serviceName = SERVICE_PREFIX + random.nextInt(services);
+        final Set<Integer> ports = livePorts.get(serviceName);
+        final Iterator<Integer> live = ports.iterator();
+        if (random.nextBoolean() && live.hasNext()) {
+            final Integer port = live.next();
+            // no longer live from now on, lookups still returning it are stale
+            ports.remove(port);
+            agent.deregister(serviceName + '-' + port);
+            deregistrations.increment();
+        } else {
+            final int port = nextPort.getAndIncrement();
+            agent.register(serviceName + '-' + port, serviceName, "", port);
+            ports.add(port);
+            registrations.increment();
+        }
+    }
+
+    private long usedHeapAfterGc() {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private int option(final String name, final int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+
+    private static boolean isHarnessOption(final String name) {
+        switch (name) {
+            case "callers":
+            case "services":
+            case "instances":
+            case "churn":
+            case "duration":
+            case "report":
+            case "maxWait":
+            case "latency":
+            case "failureRate":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private final class Reporter implements Runnable {
+        private final long start;
+        private long lastTime;
+        private long lastLookups;
+        private long lastRequests;
+
+        private Reporter(final long start) {
+            this.start = start;
+            this.lastTime = start;
+            this.lastRequests = agent.getRequestCount();
+        }
+
+        @Override
+        public void run() {
+            final long now = System.nanoTime();
+            final long totalLookups = lookups.sum();
+            final long requests = agent.getRequestCount();
+            final double interval = (now - lastTime) / 1e9;
+            System.out.printf("%4ds  %9.0f lookups/s  %7.1f agent req/s  %.4f%% stale  %d failed  %.1fMB heap%n",
+                    NANOSECONDS.toSeconds(now - start), (totalLookups - lastLookups) / interval, (requests - lastRequests) / interval,
+                    100d * staleHits.sum() / Math.max(1L, totalLookups), errors.sum(), memory.getHeapMemoryUsage().getUsed() / 1048576d);
+            lastTime = now;
+            lastLookups = totalLookups;
+            lastRequests = requests;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.testing;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Builds synthetic responses of the Consul health API.
+ * Each instance carries a node, a service and two checks with realistic output, as returned by a Consul agent.
+ */
+public final class HealthPayloads {
+    private static final String CHECK_OUTPUT = "Agent alive and reachable. HTTP GET http://10.0.0.1:8080/health: 200 OK Output: "
+            + "{\\\"status\\\":\\\"UP\\\",\\\"details\\\":{\\\"diskSpace\\\":{\\\"status\\\":\\\"UP\\\",\\\"total\\\":499963174912}}}";
+
+    private HealthPayloads() {}
+
+    /**
+     * @param serviceName the name of the service
+     * @param instances the number of healthy instances
+     * @return the JSON array returned by {@code /v1/health/service/:service}
+     */
+    public static String healthResponse(final String serviceName, final int instances) {
+        final StringBuilder json = new StringBuilder(instances * 1024).append('[');
+        for (int i = 0; i < instances; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            final String address = "10." + ((i >> 16) & 0xff) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff);
+            appendInstance(json, serviceName, serviceName + '-' + i, "node-" + i, address, i % 2 == 0 ? address : "",
+                    8080 + (i % 100), 1 + (i % 3), "1.0." + i);
+        }
+        return json.append(']').toString();
+    }
+
+    public static byte[] healthResponseBytes(final String serviceName, final int instances) {
+        return healthResponse(serviceName, instances).getBytes(UTF_8);
+    }
+
+    /**
+     * Appends one entry of the health response.
+     * @param json the response being built
+     * @param serviceName the name of the service
+     * @param serviceId the identifier of the instance
+     * @param node the name of the node
+     * @param nodeAddress the address of the node
+     * @param serviceAddress the address of the instance, empty to use the one of the node
+     * @param port the port of the instance
+     * @param weight the weight of the instance while passing
+     * @param version the value of the {@code version} meta of the instance
+     */
+    static void appendInstance(final StringBuilder json, final String serviceName, final String serviceId, final String node,
+                               final String nodeAddress, final String serviceAddress, final int port, final int weight, final String version) {
+        json.append("{\"Node\":{\"ID\":\"").append(node).append("\",\"Node\":\"").append(node)
+                .append("\",\"Address\":\"").append(nodeAddress)
+                .append("\",\"Datacenter\":\"dc1\",\"TaggedAddresses\":{\"lan\":\"").append(nodeAddress)
+                .append("\",\"wan\":\"").append(nodeAddress).append("\"},\"Meta\":{\"consul-network-segment\":\"\"}")
+                .append(",\"CreateIndex\":5,\"ModifyIndex\":6},")
+                .append("\"Service\":{\"ID\":\"").append(serviceId)
+                .append("\",\"Service\":\"").append(serviceName)
+                .append("\",\"Tags\":[\"v1\",\"primary\"],\"Address\":\"").append(serviceAddress)
+                .append("\",\"Meta\":{\"version\":\"").append(version).append("\"},\"Port\":").append(port)
+                .append(",\"Weights\":{\"Passing\":").append(weight).append(",\"Warning\":1}")
+                .append(",\"EnableTagOverride\":false,\"CreateIndex\":7,\"ModifyIndex\":7},")
+                .append("\"Checks\":[")
+                .append(check(node, "serfHealth", "Serf Health Status", "", ""))
+                .append(',')
+                .append(check(node, "service:" + serviceId, "Service '" + serviceName + "' check", serviceId, serviceName))
+                .append("]}");
+    }
+
+    private static String check(final String node, final String checkId, final String name, final String serviceId, final String serviceName) {
+        return "{\"Node\":\"" + node + "\",\"CheckID\":\"" + checkId + "\",\"Name\":\"" + name
+                + "\",\"Status\":\"passing\",\"Notes\":\"Checks the health of the instance every few seconds\""
+                + ",\"Output\":\"" + CHECK_OUTPUT + "\",\"ServiceID\":\"" + serviceId + "\",\"ServiceName\":\"" + serviceName
+                + "\",\"ServiceTags\":[],\"CreateIndex\":8,\"ModifyIndex\":9}";
+    }
+}
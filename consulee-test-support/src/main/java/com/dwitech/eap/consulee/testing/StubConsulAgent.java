@@ -0,0 +1,529 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.testing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+
+/**
+ * Lightweight in-process stand-in for the Consul agent HTTP API, for integration tests and benchmarks.
+ * <p>
+ * Emulates:
+ * <ul>
+ * <li>{@code /v1/health/service/:service}, with synthetic instances plus the registered ones, blocking queries and {@code X-Consul-Index}</li>
+ * <li>{@code /v1/agent/service/register}, {@code /v1/agent/service/deregister/:id} and {@code /v1/agent/check/pass/:check}</li>
+ * <li>{@code /v1/kv/:key}, with {@code recurse} and blocking queries</li>
+ * <li>{@code /v1/agent/self}, pinged by consul-client</li>
+ * </ul>
+ * Every answer can be delayed and a share of them answered with 500, so that clients can be measured and broken in isolation.
+ * Blocking queries are held until the service or the KV store changes, or at most {@link #setMaxWait(long) the maximum wait}.
+ * As with Consul, each service has its own index, so that a change of a service only releases the queries on that service.
+ * Use it with try-with-resources, or close it in the tear down of the test or benchmark.
+ * <p>
+ * Starting an agent sets the JVM-wide {@code sun.net.httpserver.nodelay} system property, which the JDK HTTP server
+ * reads once, so that the other HTTP servers of the JVM also disable Nagle's algorithm.
+ */
+public final class StubConsulAgent implements AutoCloseable {
+    private static final int DEFAULT_INSTANCES = 3;
+    private static final long DEFAULT_MAX_WAIT_MILLIS = 1000L;
+    private static final long FIRST_INDEX = 42L;
+    private static final Pattern REGISTRATION_FIELD = Pattern.compile("\"(Id|Name|Address|Port)\"\\s*:\\s*(\"([^\"]*)\"|(\\d+))");
+
+    private final HttpServer server;
+    private final ExecutorService executor = newCachedThreadPool();
+    private final Object changes = new Object();
+    private final AtomicLong raftIndex = new AtomicLong(FIRST_INDEX);
+    private final Map<String, Long> serviceIndexes = new ConcurrentHashMap<>();
+    private volatile long allServicesIndex = FIRST_INDEX;
+    private final AtomicLong kvIndex = new AtomicLong(FIRST_INDEX);
+    private final Map<String, Payload> payloads = new ConcurrentHashMap<>();
+    private final Map<String, Integer> instancesPerService = new ConcurrentHashMap<>();
+    private final Map<String, Registration> registrations = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> checkPasses = new ConcurrentHashMap<>();
+    private final SortedMap<String, String> keyValues = Collections.synchronizedSortedMap(new TreeMap<>());
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicInteger failNext = new AtomicInteger();
+    private volatile int instances;
+    private volatile long latencyMillis;
+    private volatile double failureRate;
+    private volatile long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+
+    /**
+     * Starts an agent on a free local port, with {@value #DEFAULT_INSTANCES} healthy instances of every service.
+     * @throws IOException if the server cannot be started
+     */
+    public StubConsulAgent() throws IOException {
+        this(DEFAULT_INSTANCES);
+    }
+
+    /**
+     * Starts an agent on a free local port.
+     * Sets the {@code sun.net.httpserver.nodelay} system property, see above.
+     * @param instances the number of synthetic healthy instances of every service
+     * @throws IOException if the server cannot be started
+     */
+    public StubConsulAgent(final int instances) throws IOException {
+        // avoid the Nagle / delayed ACK stalls of the JDK server on keep-alive connections
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.instances = instances;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/v1/health/service/", exchange -> serve(exchange, this::health));
+        this.server.createContext("/v1/agent/service/register", exchange -> serve(exchange, this::register));
+        this.server.createContext("/v1/agent/service/deregister/", exchange -> serve(exchange, this::deregister));
+        this.server.createContext("/v1/agent/check/pass/", exchange -> serve(exchange, this::pass));
+        this.server.createContext("/v1/agent/self", exchange -> serve(exchange, this::self));
+        this.server.createContext("/v1/kv/", exchange -> serve(exchange, this::keyValue));
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public String getHost() {
+        return server.getAddress().getHostString();
+    }
+
+    public String getPort() {
+        return String.valueOf(server.getAddress().getPort());
+    }
+
+    /**
+     * @param latencyMillis how long every answer is delayed, on top of the blocking queries being held
+     * @return this agent
+     */
+    public StubConsulAgent setLatency(final long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * @param failureRate the share of the requests answered with 500, between 0 and 1
+     * @return this agent
+     */
+    public StubConsulAgent setFailureRate(final double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * @param requests the number of the next requests answered with 500
+     * @return this agent
+     */
+    public StubConsulAgent failNext(final int requests) {
+        failNext.set(requests);
+        return this;
+    }
+
+    /**
+     * @param maxWaitMillis the longest a blocking query is held, whatever wait it asked for
+     * @return this agent
+     */
+    public StubConsulAgent setMaxWait(final long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+        return this;
+    }
+
+    /**
+     * Changes the number of synthetic instances of the services without their own number, releasing the blocking queries.
+     * @param instances the number of synthetic healthy instances
+     * @return this agent
+     */
+    public StubConsulAgent setInstances(final int instances) {
+        this.instances = instances;
+        catalogChanged(null);
+        return this;
+    }
+
+    /**
+     * Changes the number of synthetic instances of a service, releasing the blocking queries.
+     * @param serviceName the name of the service
+     * @param instances the number of synthetic healthy instances
+     * @return this agent
+     */
+    public StubConsulAgent setInstances(final String serviceName, final int instances) {
+        instancesPerService.put(serviceName, instances);
+        catalogChanged(serviceName);
+        return this;
+    }
+
+    /**
+     * Stores a value in the KV store, releasing the blocking queries.
+     * @param key the key
+     * @param value the value, null for a key without value
+     * @return this agent
+     */
+    public StubConsulAgent putValue(final String key, final String value) {
+        keyValues.put(key, value);
+        kvChanged();
+        return this;
+    }
+
+    /**
+     * Removes a key from the KV store, releasing the blocking queries.
+     * @param key the key
+     * @return this agent
+     */
+    public StubConsulAgent deleteValue(final String key) {
+        keyValues.remove(key);
+        kvChanged();
+        return this;
+    }
+
+    /**
+     * Registers an instance of a service, as {@code /v1/agent/service/register} does, releasing the blocking queries on the service.
+     * @param serviceId the identifier of the instance
+     * @param serviceName the name of the service
+     * @param address the address of the instance, empty to use the one of the agent
+     * @param port the port of the instance
+     * @return this agent
+     */
+    public StubConsulAgent register(final String serviceId, final String serviceName, final String address, final int port) {
+        final Registration previous = registrations.put(serviceId, new Registration(serviceId, serviceName, address, port));
+        if (previous != null && !previous.name.equals(serviceName)) {
+            catalogChanged(previous.name);
+        }
+        catalogChanged(serviceName);
+        return this;
+    }
+
+    /**
+     * Deregisters an instance, as {@code /v1/agent/service/deregister/:id} does, releasing the blocking queries on its service.
+     * @param serviceId the identifier of the instance
+     * @return true if the instance was registered
+     */
+    public boolean deregister(final String serviceId) {
+        final Registration registration = registrations.remove(serviceId);
+        if (registration == null) {
+            return false;
+        }
+        catalogChanged(registration.name);
+        return true;
+    }
+
+    /**
+     * @return the names of the registered services per service identifier
+     */
+    public Map<String, String> getRegistrations() {
+        final Map<String, String> names = new HashMap<>();
+        registrations.forEach((id, registration) -> names.put(id, registration.name));
+        return names;
+    }
+
+    /**
+     * @param checkId the check, {@code service:<serviceId>} for the TTL check of a service
+     * @return how many times the check was reported passing
+     */
+    public long getCheckPasses(final String checkId) {
+        final AtomicLong passes = checkPasses.get(checkId);
+        return passes == null ? 0L : passes.get();
+    }
+
+    /**
+     * @return the number of requests received, including the failed ones
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void serve(final HttpExchange exchange, final Handler handler) throws IOException {
+        try {
+            requests.incrementAndGet();
+            final long latency = latencyMillis;
+            if (latency > 0L) {
+                TimeUnit.MILLISECONDS.sleep(latency);
+            }
+            if (failNext.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0
+                    || (failureRate > 0d && ThreadLocalRandom.current().nextDouble() < failureRate)) {
+                send(exchange, 500, 0L, "injected failure".getBytes(UTF_8));
+            } else {
+                handler.handle(exchange);
+            }
+        } catch (InterruptedException iExc) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void health(final HttpExchange exchange) throws IOException, InterruptedException {
+        final String serviceName = exchange.getRequestURI().getPath().substring("/v1/health/service/".length());
+        final long index = await(() -> healthIndex(serviceName), exchange.getRequestURI().getRawQuery());
+        Payload payload = payloads.get(serviceName);
+        if (payload == null || payload.index < index) {
+            // the index is read before the body is built, so a body racing with a change is never cached as newer than it is
+            final long current = healthIndex(serviceName);
+            payload = new Payload(current, healthResponse(serviceName));
+            payloads.merge(serviceName, payload, (cached, built) -> cached.index >= built.index ? cached : built);
+        }
+        send(exchange, 200, payload.index, payload.body);
+    }
+
+    private byte[] healthResponse(final String serviceName) {
+        final StringBuilder json = new StringBuilder(HealthPayloads.healthResponse(serviceName, instancesPerService.getOrDefault(serviceName, instances)));
+        json.setLength(json.length() - 1);
+        for (Registration registration : registrations.values()) {
+            if (registration.name.equals(serviceName)) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+                HealthPayloads.appendInstance(json, serviceName, registration.id, "stub", getHost(), registration.address,
+                        registration.port, 1, "1.0.0");
+            }
+        }
+        return json.append(']').toString().getBytes(UTF_8);
+    }
+
+    private void register(final HttpExchange exchange) throws IOException {
+        final Map<String, String> fields = new HashMap<>();
+        final Matcher matcher = REGISTRATION_FIELD.matcher(new String(read(exchange.getRequestBody()), UTF_8));
+        while (matcher.find()) {
+            // the first occurrence is the service, the following ones its checks
+            fields.putIfAbsent(matcher.group(1), matcher.group(3) != null ? matcher.group(3) : matcher.group(4));
+        }
+        final String name = fields.get("Name");
+        if (name == null) {
+            send(exchange, 400, 0L, "Missing service name".getBytes(UTF_8));
+            return;
+        }
+        register(fields.getOrDefault("Id", name), name, fields.getOrDefault("Address", ""), Integer.parseInt(fields.getOrDefault("Port", "0")));
+        send(exchange, 200, 0L, new byte[0]);
+    }
+
+    private void deregister(final HttpExchange exchange) throws IOException {
+        final String id = exchange.getRequestURI().getPath().substring("/v1/agent/service/deregister/".length());
+        if (!deregister(id)) {
+            send(exchange, 500, 0L, ("Unknown service \"" + id + "\"").getBytes(UTF_8));
+            return;
+        }
+        send(exchange, 200, 0L, new byte[0]);
+    }
+
+    private void pass(final HttpExchange exchange) throws IOException {
+        final String checkId = exchange.getRequestURI().getPath().substring("/v1/agent/check/pass/".length());
+        if (!checkId.startsWith("service:") || !registrations.containsKey(checkId.substring("service:".length()))) {
+            send(exchange, 500, 0L, ("CheckID \"" + checkId + "\" does not have associated TTL").getBytes(UTF_8));
+            return;
+        }
+        checkPasses.computeIfAbsent(checkId, id -> new AtomicLong()).incrementAndGet();
+        send(exchange, 200, 0L, new byte[0]);
+    }
+
+    private void self(final HttpExchange exchange) throws IOException {
+        send(exchange, 200, 0L, "{\"Config\":{\"NodeName\":\"stub\",\"Datacenter\":\"dc1\"}}".getBytes(UTF_8));
+    }
+
+    private void keyValue(final HttpExchange exchange) throws IOException, InterruptedException {
+        final String key = exchange.getRequestURI().getPath().substring("/v1/kv/".length());
+        final String query = exchange.getRequestURI().getRawQuery();
+        final boolean recurse = param(query, "recurse") != null;
+        switch (exchange.getRequestMethod()) {
+            case "PUT":
+                putValue(key, new String(read(exchange.getRequestBody()), UTF_8));
+                send(exchange, 200, kvIndex.get(), "true".getBytes(UTF_8));
+                break;
+            case "DELETE":
+                synchronized (keyValues) {
+                    if (recurse) {
+                        keyValues.keySet().removeIf(stored -> stored.startsWith(key));
+                    } else {
+                        keyValues.remove(key);
+                    }
+                }
+                kvChanged();
+                send(exchange, 200, kvIndex.get(), "true".getBytes(UTF_8));
+                break;
+            default:
+                final long index = await(kvIndex::get, query);
+                final StringBuilder json = new StringBuilder().append('[');
+                synchronized (keyValues) {
+                    for (Map.Entry<String, String> entry : (recurse ? keyValues.tailMap(key) : keyValues).entrySet()) {
+                        if (recurse ? !entry.getKey().startsWith(key) : !entry.getKey().equals(key)) {
+                            if (recurse) {
+                                break;
+                            }
+                            continue;
+                        }
+                        if (json.length() > 1) {
+                            json.append(',');
+                        }
+                        json.append("{\"LockIndex\":0,\"Key\":\"").append(entry.getKey()).append("\",\"Flags\":0,\"Value\":")
+                                .append(entry.getValue() == null ? "null" : '"' + Base64.getEncoder().encodeToString(entry.getValue().getBytes(UTF_8)) + '"')
+                                .append(",\"CreateIndex\":").append(index).append(",\"ModifyIndex\":").append(index).append('}');
+                    }
+                }
+                if (json.length() == 1) {
+                    send(exchange, 404, index, new byte[0]);
+                } else {
+                    send(exchange, 200, index, json.append(']').toString().getBytes(UTF_8));
+                }
+        }
+    }
+
+    // holds a blocking query until the index moves past the one asked for, or the wait elapses
+    private long await(final LongSupplier index, final String query) throws InterruptedException {
+        final String requested = param(query, "index");
+        if (requested == null) {
+            return index.getAsLong();
+        }
+        final long seen = Long.parseLong(requested);
+        final long deadline = System.currentTimeMillis() + Math.min(maxWaitMillis, waitMillis(param(query, "wait")));
+        synchronized (changes) {
+            long remaining;
+            while (index.getAsLong() <= seen && (remaining = deadline - System.currentTimeMillis()) > 0L) {
+                changes.wait(remaining);
+            }
+        }
+        return index.getAsLong();
+    }
+
+    private long healthIndex(final String serviceName) {
+        final Long index = serviceIndexes.get(serviceName);
+        return index == null ? allServicesIndex : Math.max(index, allServicesIndex);
+    }
+
+    // a null service name changes all the services
+    private void catalogChanged(final String serviceName) {
+        if (serviceName == null) {
+            allServicesIndex = raftIndex.incrementAndGet();
+            payloads.clear();
+        } else {
+            serviceIndexes.put(serviceName, raftIndex.incrementAndGet());
+            payloads.remove(serviceName);
+        }
+        synchronized (changes) {
+            changes.notifyAll();
+        }
+    }
+
+    private void kvChanged() {
+        kvIndex.set(raftIndex.incrementAndGet());
+        synchronized (changes) {
+            changes.notifyAll();
+        }
+    }
+
+    private static long waitMillis(final String wait) {
+        if (wait == null) {
+            // the default wait of Consul
+            return TimeUnit.MINUTES.toMillis(5);
+        }
+        if (wait.endsWith("ms")) {
+            return Long.parseLong(wait.substring(0, wait.length() - 2));
+        }
+        if (wait.endsWith("m")) {
+            return TimeUnit.MINUTES.toMillis(Long.parseLong(wait.substring(0, wait.length() - 1)));
+        }
+        return TimeUnit.SECONDS.toMillis(Long.parseLong(wait.endsWith("s") ? wait.substring(0, wait.length() - 1) : wait));
+    }
+
+    private static String param(final String query, final String name) {
+        if (query != null) {
+            for (String param : query.split("&")) {
+                final int equals = param.indexOf('=');
+                if ((equals < 0 ? param : param.substring(0, equals)).equals(name)) {
+                    try {
+                        return equals < 0 ? "" : URLDecoder.decode(param.substring(equals + 1), "UTF-8");
+                    } catch (UnsupportedEncodingException ueExc) {
+                        throw new IllegalStateException(ueExc);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static byte[] read(final InputStream body) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = body.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final long index, final byte[] payload) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        if (index > 0L) {
+            exchange.getResponseHeaders().add("X-Consul-Index", String.valueOf(index));
+        }
+        exchange.sendResponseHeaders(status, payload.length == 0 ? -1 : payload.length);
+        if (payload.length > 0) {
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(payload);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException, InterruptedException;
+    }
+
+    private static final class Payload {
+        private final long index;
+        private final byte[] body;
+
+        private Payload(final long index, final byte[] body) {
+            this.index = index;
+            this.body = body;
+        }
+    }
+
+    private static final class Registration {
+        private final String id;
+        private final String name;
+        private final String address;
+        private final int port;
+
+        private Registration(final String id, final String name, final String address, final int port) {
+            this.id = id;
+            this.name = name;
+            this.address = address;
+            this.port = port;
+        }
+    }
+}
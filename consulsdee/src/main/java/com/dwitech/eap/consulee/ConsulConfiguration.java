@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee;
+
+import com.fasterxml.jackson.dataformat.yaml.snakeyaml.Yaml;
+import com.fasterxml.jackson.dataformat.yaml.snakeyaml.error.YAMLException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import static java.lang.Thread.currentThread;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Optional.ofNullable;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * Immutable snapshot of the Consul configuration, read once per deployment from the system properties,
+ * the environment and consul.yml.
+ * <p>
+ * A key is resolved as a system property first, then as the environment variable {@code <prefix>.<key>}
+ * (or {@code <key>} when there is no prefix), then from the {@code consul} section of consul.yml.
+ * With a prefix, the system property {@code <prefix>.<key>} and the {@code <prefix>} subsection of the
+ * {@code consul} section take precedence over their unprefixed counterparts, so that each service of a
+ * deployment can have its own values.
+ * Resolved values are memoized, so lookups on the request path are map reads.
+ * @since 1.0.0
+ */
+public final class ConsulConfiguration {
+    private static final Logger LOGGER = getLogger("com.dwitech.eap.consulee");
+    private static final String CONFIGURATION_FILE = "/consul.yml";
+
+    private static volatile ConsulConfiguration current;
+
+    private final Map<String, String> systemProperties;
+    private final Map<String, String> environment;
+    private final Map<String, Object> fileProperties;
+    private final ConcurrentMap<String, Optional<String>> resolved = new ConcurrentHashMap<>();
+
+    private ConsulConfiguration(final Map<String, String> systemProperties, final Map<String, String> environment,
+                                final Map<String, Object> fileProperties) {
+        this.systemProperties = systemProperties;
+        this.environment = environment;
+        this.fileProperties = fileProperties;
+    }
+
+    /**
+     * Returns the configuration of the deployment, reading it on first use.
+     * @return the current configuration
+     */
+    public static ConsulConfiguration current() {
+        ConsulConfiguration configuration = current;
+        if (configuration == null) {
+            synchronized (ConsulConfiguration.class) {
+                configuration = current;
+                if (configuration == null) {
+                    configuration = load();
+                    current = configuration;
+                }
+            }
+        }
+        return configuration;
+    }
+
+    /**
+     * Reads the configuration again and makes it the current one, e.g. after changing system properties.
+     * Clients created before keep the configuration they were created with.
+     * @return the new configuration
+     */
+    public static ConsulConfiguration reload() {
+        final ConsulConfiguration configuration = load();
+        current = configuration;
+        return configuration;
+    }
+
+    /**
+     * @param key the property
+     * @param prefix the prefix of the property, usually a service name, may be null
+     * @return the resolved value, or null
+     */
+    public String get(final String key, final String prefix) {
+        return resolved.computeIfAbsent(prefix + "\u0000" + key, k -> resolve(key, prefix)).orElse(null);
+    }
+
+    /**
+     * @param key the property
+     * @param prefix the prefix of the property, usually a service name, may be null
+     * @param defaultValue the value returned when the property is not configured
+     * @return the resolved value, or the default value
+     */
+    public String get(final String key, final String prefix, final String defaultValue) {
+        return ofNullable(get(key, prefix)).orElse(defaultValue);
+    }
+
+    /**
+     * @param key the property
+     * @param prefix the prefix of the property, usually a service name, may be null
+     * @return the resolved value
+     * @throws ConsulConfigurationException if the property is not configured
+     */
+    public String require(final String key, final String prefix) throws ConsulConfigurationException {
+        return ofNullable(get(key, prefix))
+                .orElseThrow(() -> new ConsulConfigurationException(key + " must be configured either in consul.yml or as env or system property"));
+    }
+
+    /**
+     * The {@code consul} section of consul.yml.
+     * @return the file properties, empty without file
+     */
+    public Map<String, Object> getFileProperties() {
+        return fileProperties;
+    }
+
+    private Optional<String> resolve(final String key, final String prefix) {
+        String value = prefix == null ? null : systemProperties.get(prefix + "." + key);
+        if (value == null) {
+            value = systemProperties.get(key);
+        }
+        if (value == null) {
+            value = environment.get(prefix == null ? key : prefix + "." + key);
+        }
+        if (value == null && prefix != null && fileProperties.get(prefix) instanceof Map) {
+            value = ofNullable(((Map<?, ?>) fileProperties.get(prefix)).get(key)).map(Object::toString).orElse(null);
+        }
+        if (value == null) {
+            value = ofNullable(fileProperties.get(key)).map(Object::toString).orElse(null);
+        }
+        return ofNullable(value);
+    }
+
+    private static ConsulConfiguration load() {
+        final Properties properties = System.getProperties();
+        final Map<String, String> systemProperties = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            systemProperties.put(name, properties.getProperty(name));
+        }
+
+        final URL file = findFile();
+        Map<String, Object> fileProperties = Collections.emptyMap();
+        if (file == null) {
+            LOGGER.config(() -> "No configuration file. Using env properties.");
+        } else {
+            try (InputStream inputStream = file.openStream()) {
+                final Map<String, Object> props = (Map<String, Object>) new Yaml().load(inputStream);
+                if (props != null && props.get("consul") instanceof Map) {
+                    fileProperties = unmodifiableMap(new HashMap<>((Map<String, Object>) props.get("consul")));
+                }
+            } catch (IOException | YAMLException exc) {
+                LOGGER.warning(() -> "Could not read " + file + ": " + exc.getMessage());
+            }
+        }
+        return new ConsulConfiguration(unmodifiableMap(systemProperties), System.getenv(), fileProperties);
+    }
+
+    private static URL findFile() {
+        final ClassLoader classLoader = currentThread().getContextClassLoader();
+        final URL file = classLoader.getResource(CONFIGURATION_FILE);
+        return file != null ? file : classLoader.getResource(CONFIGURATION_FILE.substring(1));
+    }
+}
@@ -15,6 +15,13 @@
  */
 package com.dwitech.eap.consulee;
 
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static java.util.Collections.emptySet;
+import static java.util.Collections.unmodifiableSet;
+
 /**
  * Singleton to store the information gathered from annotation scan.
  * @since 1.0.0
@@ -22,6 +29,7 @@ package com.dwitech.eap.consulee;
 public final class ConsulExtensionHelper {
     private boolean consulEnabled;
     private String serviceName;
+    private Set<String> serviceNames = emptySet();
 
     private static final ConsulExtensionHelper INSTANCE = new ConsulExtensionHelper();
 
@@ -30,6 +38,15 @@ public final class ConsulExtensionHelper {
     }
     public static void setServiceName(String serviceName) {INSTANCE.serviceName = serviceName; }
 
+    /**
+     * @return the names of all the services to register, in the order they were found
+     */
+    public static Set<String> getServiceNames() { return INSTANCE.serviceNames; }
+    public static void setServiceNames(final Collection<String> serviceNames) {
+        INSTANCE.serviceNames = unmodifiableSet(new LinkedHashSet<>(serviceNames));
+        INSTANCE.serviceName = serviceNames.isEmpty() ? null : serviceNames.iterator().next();
+    }
+
     public static boolean isConsulEnabled() { return INSTANCE.consulEnabled; }
     public static void setConsulEnabled(final boolean consulEnabled) { INSTANCE.consulEnabled = consulEnabled; }
 }
\ No newline at end of file
@@ -40,4 +40,42 @@ public @interface Consul {
     * @return The service name
     */
    @Nonbinding String serviceName() default "";
+
+   /**
+    * The load balancing strategy used to pick a node of the service.
+    * Either one of the built-in strategies ({@code round-robin}, {@code weighted-random},
+    * {@code least-outstanding-requests}, {@code power-of-two-choices}, {@code latency-aware}) or the class name of a
+    * {@link com.dwitech.eap.consulee.loadbalancer.LoadBalancer} implementation.
+    * Defaults to the {@code loadBalancer} property of consul.yml, or round-robin.
+    * @return The load balancing strategy
+    */
+   @Nonbinding String loadBalancer() default "";
+
+   /**
+    * The tags every node of the service must have.
+    * Defaults to the comma separated {@code consulTags} property.
+    * @return The required tags
+    */
+   @Nonbinding String[] tags() default {};
+
+   /**
+    * The datacenter to look the service up in.
+    * Defaults to the {@code consulDatacenter} property, or the datacenter of the agent.
+    * @return The datacenter
+    */
+   @Nonbinding String datacenter() default "";
+
+   /**
+    * The node the nodes of the service are sorted by distance from, {@code _agent} for the agent.
+    * Defaults to the {@code consulNear} property, or {@code _agent} with the {@code latency-aware} load balancer, or no sorting.
+    * @return The node to sort from
+    */
+   @Nonbinding String near() default "";
+
+   /**
+    * A Consul filter expression the nodes of the service must match, e.g. {@code Service.Meta.version == "2"}.
+    * Defaults to the {@code consulFilter} property, or no filter.
+    * @return The filter expression
+    */
+   @Nonbinding String filter() default "";
 }
\ No newline at end of file
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.client;
+
+import com.dwitech.eap.consulee.loadbalancer.OutlierDetectionFilter;
+import com.dwitech.eap.consulee.loadbalancer.ObservedLatencies;
+import com.dwitech.eap.consulee.loadbalancer.OutlierDetector;
+import com.dwitech.eap.consulee.loadbalancer.OutstandingRequests;
+import com.dwitech.eap.consulee.loadbalancer.OutstandingRequestsFilter;
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+import com.dwitech.eap.consulee.service.ServiceHealthCache;
+import com.dwitech.eap.consulee.service.ServiceTopologyChanged;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * Keeps one pooled JAX-RS client per target service and caches its web targets per node,
+ * so that calls reuse keep-alive connections instead of creating a client per lookup.
+ * <p>
+ * JAX-RS 2.0 has no portable way to set timeouts or pool sizes, so they are passed using the
+ * properties understood by Jersey and CXF, and applied to a RESTEasy client builder when one is in use.
+ * <p>
+ * The clients follow the topology of their service: connections to nodes added to it are opened ahead of the
+ * first call when {@code clientPrewarmConnections} is set, and the web targets, load statistics and outlier state of
+ * removed nodes are dropped, so that their idle connections are left to expire in the pool while the calls in flight complete.
+ * @since 1.0.0
+ */
+public final class ClientRegistry {
+    private static final Logger LOGGER = getLogger("com.dwitech.eap.consulee");
+
+    private static final ClientRegistry INSTANCE = new ClientRegistry();
+
+    private final ConcurrentMap<String, ServiceClients> clients = new ConcurrentHashMap<>();
+
+    private ClientRegistry() {
+        ServiceHealthCache.getInstance().addTopologyListener(this::topologyChanged);
+    }
+
+    public static ClientRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the web target of a node of a service.
+     * @param serviceName the name of the service
+     * @param consulConfig the client configuration, with the service host and port of the node, and the optional root path of the service
+     * @return the shared web target
+     */
+    public WebTarget target(final String serviceName, final ConsulConfig consulConfig) {
+        ServiceClients serviceClients = clients.get(serviceName);
+        if (serviceClients == null) {
+            serviceClients = clients.computeIfAbsent(serviceName, name -> new ServiceClients(name, consulConfig));
+        }
+        return serviceClients.target(consulConfig.getServiceHost(), consulConfig.getServicePort(), consulConfig.getServiceRoot());
+    }
+
+    /**
+     * Closes all the clients.
+     */
+    public void close() {
+        clients.values().forEach(ServiceClients::close);
+        clients.clear();
+    }
+
+    private void topologyChanged(final ServiceTopologyChanged topologyChanged) {
+        final ServiceClients serviceClients = clients.get(topologyChanged.getServiceName());
+        if (serviceClients == null) {
+            return;
+        }
+        for (final DiscoveryResult node : topologyChanged.getRemoved()) {
+            serviceClients.drain(node.getIp(), node.getPort());
+            OutstandingRequests.remove(node.getIp(), node.getPort());
+            ObservedLatencies.remove(node.getIp(), node.getPort());
+            serviceClients.detector.remove(node.getIp(), node.getPort());
+        }
+        for (final DiscoveryResult node : topologyChanged.getAdded()) {
+            serviceClients.warmUp(node.getIp(), node.getPort());
+        }
+    }
+
+    private static Client newClient(final ConsulConfig consulConfig, final OutlierDetector detector) {
+        final int poolSize = Integer.parseInt(consulConfig.getClientPoolSize());
+        final long connectTimeout = Long.parseLong(consulConfig.getClientConnectTimeout());
+        final long readTimeout = Long.parseLong(consulConfig.getClientReadTimeout());
+
+        final ClientBuilder builder = ClientBuilder.newBuilder()
+                // Jersey
+                .property("jersey.config.client.connectTimeout", (int) connectTimeout)
+                .property("jersey.config.client.readTimeout", (int) readTimeout)
+                // CXF
+                .property("http.connection.timeout", connectTimeout)
+                .property("http.receive.timeout", readTimeout);
+
+        // RESTEasy
+        invokeIfPresent(builder, "connectionPoolSize", new Class<?>[]{int.class}, poolSize);
+        invokeIfPresent(builder, "maxPooledPerRoute", new Class<?>[]{int.class}, poolSize);
+        invokeIfPresent(builder, "establishConnectionTimeout", new Class<?>[]{long.class, TimeUnit.class}, connectTimeout, MILLISECONDS);
+        invokeIfPresent(builder, "socketTimeout", new Class<?>[]{long.class, TimeUnit.class}, readTimeout, MILLISECONDS);
+
+        final Client client = builder.build()
+                .register(new OutstandingRequestsFilter(MILLISECONDS.toNanos(connectTimeout + readTimeout)))
+                .register(new OutlierDetectionFilter(detector));
+        if (!Boolean.parseBoolean(consulConfig.getClientKeepAlive())) {
+            client.register((ClientRequestFilter) requestContext -> requestContext.getHeaders().putSingle("Connection", "close"));
+        }
+        return client;
+    }
+
+    private static void invokeIfPresent(final Object target, final String name, final Class<?>[] parameterTypes, final Object... args) {
+        try {
+            final Method method = target.getClass().getMethod(name, parameterTypes);
+            method.invoke(target, args);
+        } catch (NoSuchMethodException nsmExc) {
+            // not supported by this JAX-RS implementation
+        } catch (ReflectiveOperationException roExc) {
+            LOGGER.warning(() -> "Could not apply " + name + " to the client builder: " + roExc.getMessage());
+        }
+    }
+
+    private static final class ServiceClients {
+        private final String serviceName;
+        private final OutlierDetector detector;
+        private final Client client;
+        private final int prewarmConnections;
+        private final ConcurrentMap<String, WebTarget> targets = new ConcurrentHashMap<>();
+        private volatile String root;
+
+        private ServiceClients(final String serviceName, final ConsulConfig consulConfig) {
+            LOGGER.config(() -> "creating client for " + serviceName);
+            this.serviceName = serviceName;
+            this.detector = OutlierDetector.forService(serviceName, consulConfig);
+            this.client = newClient(consulConfig, detector);
+            this.prewarmConnections = Boolean.parseBoolean(consulConfig.getClientKeepAlive())
+                    ? Integer.parseInt(consulConfig.getClientPrewarmConnections()) : 0;
+        }
+
+        private WebTarget target(final String host, final String port, final String root) {
+            this.root = root;
+            final String uri = root == null || root.isEmpty()
+                    ? "http://" + host + ":" + port
+                    : "http://" + host + ":" + port + (root.startsWith("/") ? root : "/" + root);
+            WebTarget target = targets.get(uri);
+            if (target == null) {
+                target = targets.computeIfAbsent(uri, client::target);
+            }
+            return target;
+        }
+
+        /**
+         * Sends concurrent HEAD requests to the node so that the pool holds open connections to it.
+         * Their outcome is ignored and they are neither counted by the load balancers nor by the outlier detection.
+         */
+        private void warmUp(final String host, final int port) {
+            if (prewarmConnections <= 0) {
+                return;
+            }
+            LOGGER.fine(() -> "opening " + prewarmConnections + " connections to " + host + ":" + port + " for " + serviceName);
+            final WebTarget target = target(host, String.valueOf(port), root);
+            for (int i = 0; i < prewarmConnections; i++) {
+                target.request()
+                        .property(OutstandingRequestsFilter.WARM_UP_PROPERTY, Boolean.TRUE)
+                        .async()
+                        .method("HEAD", new InvocationCallback<Response>() {
+                            @Override
+                            public void completed(final Response response) {
+                                response.close();
+                            }
+
+                            @Override
+                            public void failed(final Throwable throwable) {
+                                LOGGER.fine(() -> "Could not open a connection to " + host + ":" + port + ": " + throwable.getMessage());
+                            }
+                        });
+            }
+        }
+
+        /**
+         * Drops the web targets of the node; the calls in flight keep theirs and complete normally.
+         */
+        private void drain(final String host, final int port) {
+            final String prefix = "http://" + host + ":" + port;
+            targets.keySet().removeIf(uri -> uri.startsWith(prefix) && (uri.length() == prefix.length() || uri.charAt(prefix.length()) == '/'));
+            LOGGER.fine(() -> "draining " + host + ":" + port + " for " + serviceName);
+        }
+
+        private void close() {
+            targets.clear();
+            client.close();
+        }
+    }
+}
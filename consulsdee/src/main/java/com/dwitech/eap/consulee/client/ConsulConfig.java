@@ -29,11 +29,75 @@ public class ConsulConfig {
     private String serviceHost;
     private String servicePort;
     private String serviceTTL;
-    private String serviceRoot; // TODO add serviceRoot as key/value
+    private String serviceTags;
+    private String serviceCheck;
+    private String serviceCheckUrl;
+    private String serviceCheckInterval;
+    private String serviceRoot;
 
     private String consulHost;
     private String consulPort;
+    private String consulConnectTimeout;
+    private String consulReadTimeout;
+    private String consulWatchWait;
+    private String consulMaxStaleness;
+    private String consulBatchWindow;
+    private String consulTags;
+    private String consulDatacenter;
+    private String consulNear;
+    private String consulFilter;
+    private String healthDecoder;
+    private String loadBalancer;
+    private String outlierConsecutiveFailures;
+    private String outlierLatencyThreshold;
+    private String outlierEjectionTime;
+    private String outlierMaxEjectionPercent;
 
+    private String clientPoolSize;
+    private String clientKeepAlive;
+    private String clientConnectTimeout;
+    private String clientReadTimeout;
+    private String clientPrewarmConnections;
+
+    public ConsulConfig() {}
+
+    /**
+     * @param other the configuration to copy
+     */
+    public ConsulConfig(ConsulConfig other) {
+        this.serviceId = other.serviceId;
+        this.serviceName = other.serviceName;
+        this.serviceHost = other.serviceHost;
+        this.servicePort = other.servicePort;
+        this.serviceTTL = other.serviceTTL;
+        this.serviceTags = other.serviceTags;
+        this.serviceCheck = other.serviceCheck;
+        this.serviceCheckUrl = other.serviceCheckUrl;
+        this.serviceCheckInterval = other.serviceCheckInterval;
+        this.serviceRoot = other.serviceRoot;
+        this.consulHost = other.consulHost;
+        this.consulPort = other.consulPort;
+        this.consulConnectTimeout = other.consulConnectTimeout;
+        this.consulReadTimeout = other.consulReadTimeout;
+        this.consulWatchWait = other.consulWatchWait;
+        this.consulMaxStaleness = other.consulMaxStaleness;
+        this.consulBatchWindow = other.consulBatchWindow;
+        this.consulTags = other.consulTags;
+        this.consulDatacenter = other.consulDatacenter;
+        this.consulNear = other.consulNear;
+        this.consulFilter = other.consulFilter;
+        this.healthDecoder = other.healthDecoder;
+        this.loadBalancer = other.loadBalancer;
+        this.outlierConsecutiveFailures = other.outlierConsecutiveFailures;
+        this.outlierLatencyThreshold = other.outlierLatencyThreshold;
+        this.outlierEjectionTime = other.outlierEjectionTime;
+        this.outlierMaxEjectionPercent = other.outlierMaxEjectionPercent;
+        this.clientPoolSize = other.clientPoolSize;
+        this.clientKeepAlive = other.clientKeepAlive;
+        this.clientConnectTimeout = other.clientConnectTimeout;
+        this.clientReadTimeout = other.clientReadTimeout;
+        this.clientPrewarmConnections = other.clientPrewarmConnections;
+    }
 
     public String getServiceName() { return serviceName; }
     public void setServiceName(String serviceName) { this.serviceName = serviceName; }
@@ -50,6 +114,18 @@ public class ConsulConfig {
     public String getServiceHost() { return serviceHost; }
     public void setServiceHost(String serviceHost) { this.serviceHost = serviceHost; }
 
+    public String getServiceTags() { return serviceTags; }
+    public void setServiceTags(String serviceTags) { this.serviceTags = serviceTags; }
+
+    public String getServiceCheck() { return serviceCheck; }
+    public void setServiceCheck(String serviceCheck) { this.serviceCheck = serviceCheck; }
+
+    public String getServiceCheckUrl() { return serviceCheckUrl; }
+    public void setServiceCheckUrl(String serviceCheckUrl) { this.serviceCheckUrl = serviceCheckUrl; }
+
+    public String getServiceCheckInterval() { return serviceCheckInterval; }
+    public void setServiceCheckInterval(String serviceCheckInterval) { this.serviceCheckInterval = serviceCheckInterval; }
+
 
     public String getConsulHost() {
         return consulHost;
@@ -63,23 +139,115 @@ public class ConsulConfig {
         this.consulPort = consulPort;
     }
 
+    public String getConsulConnectTimeout() { return consulConnectTimeout; }
+    public void setConsulConnectTimeout(String consulConnectTimeout) { this.consulConnectTimeout = consulConnectTimeout; }
+
+    public String getConsulReadTimeout() { return consulReadTimeout; }
+    public void setConsulReadTimeout(String consulReadTimeout) { this.consulReadTimeout = consulReadTimeout; }
+
+    public String getConsulWatchWait() { return consulWatchWait; }
+    public void setConsulWatchWait(String consulWatchWait) { this.consulWatchWait = consulWatchWait; }
+
+    public String getConsulMaxStaleness() { return consulMaxStaleness; }
+    public void setConsulMaxStaleness(String consulMaxStaleness) { this.consulMaxStaleness = consulMaxStaleness; }
+
+    public String getConsulBatchWindow() { return consulBatchWindow; }
+    public void setConsulBatchWindow(String consulBatchWindow) { this.consulBatchWindow = consulBatchWindow; }
+
+    public String getConsulTags() { return consulTags; }
+    public void setConsulTags(String consulTags) { this.consulTags = consulTags; }
+
+    public String getConsulDatacenter() { return consulDatacenter; }
+    public void setConsulDatacenter(String consulDatacenter) { this.consulDatacenter = consulDatacenter; }
+
+    public String getConsulNear() { return consulNear; }
+    public void setConsulNear(String consulNear) { this.consulNear = consulNear; }
+
+    public String getConsulFilter() { return consulFilter; }
+    public void setConsulFilter(String consulFilter) { this.consulFilter = consulFilter; }
+
+    public String getHealthDecoder() { return healthDecoder; }
+    public void setHealthDecoder(String healthDecoder) { this.healthDecoder = healthDecoder; }
+
+    public String getLoadBalancer() { return loadBalancer; }
+    public void setLoadBalancer(String loadBalancer) { this.loadBalancer = loadBalancer; }
+
+    public String getOutlierConsecutiveFailures() { return outlierConsecutiveFailures; }
+    public void setOutlierConsecutiveFailures(String outlierConsecutiveFailures) { this.outlierConsecutiveFailures = outlierConsecutiveFailures; }
+
+    public String getOutlierLatencyThreshold() { return outlierLatencyThreshold; }
+    public void setOutlierLatencyThreshold(String outlierLatencyThreshold) { this.outlierLatencyThreshold = outlierLatencyThreshold; }
+
+    public String getOutlierEjectionTime() { return outlierEjectionTime; }
+    public void setOutlierEjectionTime(String outlierEjectionTime) { this.outlierEjectionTime = outlierEjectionTime; }
+
+    public String getOutlierMaxEjectionPercent() { return outlierMaxEjectionPercent; }
+    public void setOutlierMaxEjectionPercent(String outlierMaxEjectionPercent) { this.outlierMaxEjectionPercent = outlierMaxEjectionPercent; }
+
+    public String getClientPoolSize() { return clientPoolSize; }
+    public void setClientPoolSize(String clientPoolSize) { this.clientPoolSize = clientPoolSize; }
+
+    public String getClientKeepAlive() { return clientKeepAlive; }
+    public void setClientKeepAlive(String clientKeepAlive) { this.clientKeepAlive = clientKeepAlive; }
+
+    public String getClientConnectTimeout() { return clientConnectTimeout; }
+    public void setClientConnectTimeout(String clientConnectTimeout) { this.clientConnectTimeout = clientConnectTimeout; }
+
+    public String getClientReadTimeout() { return clientReadTimeout; }
+    public void setClientReadTimeout(String clientReadTimeout) { this.clientReadTimeout = clientReadTimeout; }
+
+    public String getClientPrewarmConnections() { return clientPrewarmConnections; }
+    public void setClientPrewarmConnections(String clientPrewarmConnections) { this.clientPrewarmConnections = clientPrewarmConnections; }
+
     public String toJSON() {
         Writer w = new StringWriter();
         try (JsonGenerator generator = Json.createGenerator(w)) {
-            generator.writeStartObject()
-                    .write("serviceId", serviceId)
-                    .write("serviceName", serviceName)
-                    .write("serviceHost", serviceHost)
-                    .write("servicePort", servicePort)
-                    .write("serviceRoot", serviceRoot)
-                    .write("serviceTTL", serviceTTL)
-                    .write("consulHost", consulHost)
-                    .write("consulPort", consulPort)
-            .writeEnd();
+            generator.writeStartObject();
+            write(generator, "serviceId", serviceId);
+            write(generator, "serviceName", serviceName);
+            write(generator, "serviceHost", serviceHost);
+            write(generator, "servicePort", servicePort);
+            write(generator, "serviceRoot", serviceRoot);
+            write(generator, "serviceTTL", serviceTTL);
+            write(generator, "serviceTags", serviceTags);
+            write(generator, "serviceCheck", serviceCheck);
+            write(generator, "serviceCheckUrl", serviceCheckUrl);
+            write(generator, "serviceCheckInterval", serviceCheckInterval);
+            write(generator, "consulHost", consulHost);
+            write(generator, "consulPort", consulPort);
+            write(generator, "consulConnectTimeout", consulConnectTimeout);
+            write(generator, "consulReadTimeout", consulReadTimeout);
+            write(generator, "consulWatchWait", consulWatchWait);
+            write(generator, "consulMaxStaleness", consulMaxStaleness);
+            write(generator, "consulBatchWindow", consulBatchWindow);
+            write(generator, "consulTags", consulTags);
+            write(generator, "consulDatacenter", consulDatacenter);
+            write(generator, "consulNear", consulNear);
+            write(generator, "consulFilter", consulFilter);
+            write(generator, "healthDecoder", healthDecoder);
+            write(generator, "loadBalancer", loadBalancer);
+            write(generator, "outlierConsecutiveFailures", outlierConsecutiveFailures);
+            write(generator, "outlierLatencyThreshold", outlierLatencyThreshold);
+            write(generator, "outlierEjectionTime", outlierEjectionTime);
+            write(generator, "outlierMaxEjectionPercent", outlierMaxEjectionPercent);
+            write(generator, "clientPoolSize", clientPoolSize);
+            write(generator, "clientKeepAlive", clientKeepAlive);
+            write(generator, "clientConnectTimeout", clientConnectTimeout);
+            write(generator, "clientReadTimeout", clientReadTimeout);
+            write(generator, "clientPrewarmConnections", clientPrewarmConnections);
+            generator.writeEnd();
         }
         return w.toString();
     }
 
+    private static void write(JsonGenerator generator, String name, String value) {
+        if (value == null) {
+            generator.writeNull(name);
+        } else {
+            generator.write(name, value);
+        }
+    }
+
     public String getServiceRoot() {
         return serviceRoot;
     }
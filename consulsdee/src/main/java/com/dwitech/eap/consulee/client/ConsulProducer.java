@@ -15,24 +15,32 @@
  */
 package com.dwitech.eap.consulee.client;
 
-import com.dwitech.eap.consulee.ConsulConfigurationException;
+import com.dwitech.eap.consulee.ConsulConfiguration;
 import com.dwitech.eap.consulee.annotation.Consul;
-import com.fasterxml.jackson.dataformat.yaml.snakeyaml.Yaml;
-import com.fasterxml.jackson.dataformat.yaml.snakeyaml.error.YAMLException;
+import com.dwitech.eap.consulee.metrics.ConsulMetrics;
+import com.dwitech.eap.consulee.metrics.ConsulMetricsProvider;
+import com.dwitech.eap.consulee.service.ConsulKeyValueSource;
+import com.dwitech.eap.consulee.service.KeyValuesChanged;
+import com.dwitech.eap.consulee.service.ServiceHealthCache;
+import com.dwitech.eap.consulee.service.ServiceTopologyChanged;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.context.Dependent;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Instance;
 import javax.enterprise.inject.Produces;
 import javax.enterprise.inject.spi.InjectionPoint;
-import java.util.Collections;
-import java.util.Map;
+import javax.inject.Inject;
+import java.lang.reflect.Member;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 import static com.dwitech.eap.consulee.ConsulExtensionHelper.isConsulEnabled;
 import static com.dwitech.eap.consulee.ConsulExtensionHelper.setServiceName;
-import static java.lang.Thread.currentThread;
-import static java.util.Optional.ofNullable;
 
 /**
  * CDI Producer for ConsulServiceClient.
@@ -40,33 +48,55 @@ import static java.util.Optional.ofNullable;
 @ApplicationScoped
 public class ConsulProducer {
     private static final Logger LOGGER = Logger.getLogger("com.dwitech.eap.consulee");
-    private Map<String, Object> consulConfig = Collections.EMPTY_MAP;
+    private ConsulConfiguration configuration;
+
+    @Inject private Instance<ConsulMetrics> metrics;
+    @Inject private Event<KeyValuesChanged> keyValuesChanged;
+    @Inject private Event<ServiceTopologyChanged> topologyChanged;
+    private Consumer<KeyValuesChanged> keyValuesListener;
+    private Consumer<ServiceTopologyChanged> topologyListener;
 
     /**
-     * Creates a ConsulServiceClient for the named service.
+     * Returns the ConsulServiceClient for the named service, shared by the injection points with the same options.
      * @param ip The injection point
      * @return a configured Consul service client
      */
     @Consul @Produces @Dependent
     public ConsulServiceClient lookup(InjectionPoint ip) {
-        final String applicationName = ip.getAnnotated().getAnnotation(Consul.class).serviceName();
-        LOGGER.config(() -> "producing " + applicationName);
-        return new ConsulServiceClient(applicationName);
+        final Member member = ip.getMember();
+        final ConsulServiceClient client = ConsulServiceClients.get(member);
+        if (client != null) {
+            return client;
+        }
+        final Consul consul = ip.getAnnotated().getAnnotation(Consul.class);
+        LOGGER.config(() -> "producing " + consul.serviceName());
+        return ConsulServiceClients.register(member, consul, configuration);
+    }
+
+    /**
+     * Exposes the configuration of the deployment, read once from the system properties, the environment and consul.yml.
+     * @return the current configuration
+     */
+    @Produces @Dependent
+    public ConsulConfiguration configuration() {
+        return ConsulConfiguration.current();
+    }
+
+    /**
+     * Exposes the configuration read from the Consul KV store, whose changes are fired as {@link KeyValuesChanged} events.
+     * @return the key/value source
+     */
+    @Produces @Dependent
+    public ConsulKeyValueSource keyValueSource() {
+        return ConsulKeyValueSource.getInstance();
     }
 
-    private String readProperty(final String key, Map<String, Object> snoopConfig) {
-        String property = ofNullable(System.getProperty(key))
-                .orElseGet(() -> {
-                    String envProp = ofNullable(System.getenv(key))
-                            .orElseGet(() -> {
-                                String confProp = ofNullable(snoopConfig.get(key))
-                                        .orElseThrow(() -> new ConsulConfigurationException(key + " must be configured either in consul.yml or as env or system property"))
-                                        .toString();
-                                return confProp;
-                            });
-                    return envProp;
-                });
-        return property;
+    /**
+     * Starts the producer with the application, so that the KV store is watched before the first lookup.
+     * @param context the application context
+     */
+    void startup(@Observes @Initialized(ApplicationScoped.class) final Object context) {
+        LOGGER.config("Consul discovery started");
     }
 
     /**
@@ -74,16 +104,34 @@ public class ConsulProducer {
      */
     @PostConstruct
     private void init() {
-        try {
-            Yaml yaml = new Yaml();
-            Map<String, Object> props = (Map<String, Object>) yaml.load(currentThread().getContextClassLoader().getResourceAsStream("/consul.yml"));
-            consulConfig = (Map<String, Object>) props.get("consul");
-
-            if (!isConsulEnabled()) {
-                setServiceName(readProperty("serviceName", consulConfig));
+        configuration = ConsulConfiguration.current();
+        if (!isConsulEnabled()) {
+            final String serviceName = configuration.get("serviceName", null);
+            if (serviceName != null) {
+                setServiceName(serviceName);
             }
-        } catch (YAMLException e) {
-            LOGGER.config(() -> "No configuration file. Using env properties.");
         }
+        if (!metrics.isUnsatisfied() && !metrics.isAmbiguous()) {
+            ConsulMetricsProvider.set(metrics.get());
+        }
+        ConsulServiceClients.persistCache(configuration);
+        keyValuesListener = keyValuesChanged::fire;
+        ConsulKeyValueSource.getInstance().addListener(keyValuesListener);
+        ConsulKeyValueSource.getInstance().watch(configuration);
+        topologyListener = topologyChanged::fire;
+        ServiceHealthCache.getInstance().addTopologyListener(topologyListener);
+    }
+
+    /**
+     * Stops watching the discovered services, after persisting them if configured, and closes their clients.
+     */
+    @PreDestroy
+    private void destroy() {
+        ServiceHealthCache.getInstance().removeTopologyListener(topologyListener);
+        ConsulKeyValueSource.getInstance().removeListener(keyValuesListener);
+        ConsulKeyValueSource.getInstance().shutdown();
+        ServiceHealthCache.getInstance().shutdown();
+        ClientRegistry.getInstance().close();
+        ConsulServiceClients.clear();
     }
 }
\ No newline at end of file
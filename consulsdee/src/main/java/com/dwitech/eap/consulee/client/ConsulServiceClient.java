@@ -15,22 +15,60 @@
  */
 package com.dwitech.eap.consulee.client;
 
+import com.dwitech.eap.consulee.ConsulConfiguration;
+import com.dwitech.eap.consulee.loadbalancer.OutlierDetector;
+import com.dwitech.eap.consulee.loadbalancer.OutstandingRequests;
+import com.dwitech.eap.consulee.model.ServiceHealth;
 import com.dwitech.eap.consulee.service.ConsulServiceDiscovery;
+import com.dwitech.eap.consulee.service.HealthQuery;
+import com.dwitech.eap.consulee.service.ServiceTopologyChanged;
+import org.reactivestreams.Publisher;
 
 import javax.ws.rs.client.WebTarget;
+import java.net.URI;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
-import static javax.ws.rs.client.ClientBuilder.newClient;
-
 /**
  * Client API for calling services registered with Consul.
  */
 public class ConsulServiceClient {
     private static final Logger LOGGER = Logger.getLogger("com.dwitech.eap.consulee");
     private final String applicationName;
+    private final ConsulServiceDiscovery discovery;
 
     public ConsulServiceClient(final String applicationName) {
+        this(applicationName, null);
+    }
+
+    /**
+     * @param applicationName the name of the service
+     * @param loadBalancer the load balancing strategy, null or empty to use the configured one
+     */
+    public ConsulServiceClient(final String applicationName, final String loadBalancer) {
+        this(ConsulConfiguration.current(), applicationName, loadBalancer);
+    }
+
+    /**
+     * @param configuration the configuration of the deployment
+     * @param applicationName the name of the service
+     * @param loadBalancer the load balancing strategy, null or empty to use the configured one
+     */
+    public ConsulServiceClient(final ConsulConfiguration configuration, final String applicationName, final String loadBalancer) {
+        this(configuration, applicationName, loadBalancer, HealthQuery.ALL);
+    }
+
+    /**
+     * @param configuration the configuration of the deployment
+     * @param applicationName the name of the service
+     * @param loadBalancer the load balancing strategy, null or empty to use the configured one
+     * @param query the query options, each one left empty is taken from the configuration
+     */
+    public ConsulServiceClient(final ConsulConfiguration configuration, final String applicationName, final String loadBalancer,
+                               final HealthQuery query) {
         this.applicationName = applicationName;
+        this.discovery = new ConsulServiceDiscovery(configuration, applicationName, loadBalancer, query);
         LOGGER.info(() -> "client created for " + applicationName);
     }
 
@@ -40,8 +78,84 @@ public class ConsulServiceClient {
      * @throws ConsulServiceUnavailableException if service is not available
      */
     public WebTarget getServiceRoot() throws ConsulServiceUnavailableException {
-        ConsulConfig consulConfig = new ConsulServiceDiscovery(applicationName).discoverServiceConfiguration();
+        ConsulConfig consulConfig = discovery.discoverServiceConfiguration();
         LOGGER.fine(() -> "looking up service for " + applicationName);
-        return newClient().target("http://" + consulConfig.getServiceHost() + ":" + consulConfig.getServicePort());
+        return ClientRegistry.getInstance().target(applicationName, consulConfig);
+    }
+
+    /**
+     * Non-blocking locator of the service root for the service registered with Consul.
+     * Once the service is cached the returned stage is already completed; the first lookup
+     * completes once the Consul agent answered, without holding the calling thread.
+     * @return the serviceRoot, completed exceptionally with a {@link ConsulServiceUnavailableException}
+     * if service is not available
+     */
+    public CompletionStage<WebTarget> getServiceRootAsync() {
+        LOGGER.fine(() -> "looking up service asynchronously for " + applicationName);
+        return discovery.discoverServiceConfigurationAsync()
+                .thenApply(consulConfig -> ClientRegistry.getInstance().target(applicationName, consulConfig));
+    }
+
+    /**
+     * Publishes the healthy nodes of the service every time they change, starting with the current ones.
+     * Subscribers that fall behind only receive the latest nodes.
+     * @return a publisher of the snapshots of the healthy nodes
+     */
+    public Publisher<ServiceHealth> watchServiceHealth() {
+        return discovery.watchServiceHealth();
+    }
+
+    /**
+     * Registers a listener notified of the nodes added, removed or modified in the service, on the thread of its watcher,
+     * so that state kept per node can be updated incrementally.
+     * @param listener the listener
+     */
+    public void addTopologyListener(final Consumer<ServiceTopologyChanged> listener) {
+        discovery.addTopologyListener(listener);
+    }
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeTopologyListener(final Consumer<ServiceTopologyChanged> listener) {
+        discovery.removeTopologyListener(listener);
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #getServiceHealth()}.
+     * @return the last known good healthy nodes, completed exceptionally with a
+     * {@link ConsulServiceUnavailableException} if service is not available
+     */
+    public CompletionStage<ServiceHealth> getServiceHealthAsync() {
+        return discovery.discoverServiceHealthAsync();
+    }
+
+    /**
+     * @return the name of the service
+     */
+    public String getApplicationName() {
+        return applicationName;
+    }
+
+    /**
+     * Reports a call to a service root that failed without a response, e.g. with a
+     * {@link javax.ws.rs.ProcessingException} caused by a refused connection or a timeout,
+     * so that the node can be ejected from rotation and the call is no longer counted as in flight.
+     * @param serviceRoot the service root the call was sent to
+     */
+    public void reportFailure(final WebTarget serviceRoot) {
+        final URI uri = serviceRoot.getUri();
+        OutstandingRequests.decrement(uri.getHost(), uri.getPort());
+        OutlierDetector.forService(applicationName, discovery.readConfiguration()).failure(uri.getHost(), uri.getPort());
+    }
+
+    /**
+     * Returns the healthy nodes the service root is chosen from.
+     * Their age tells how long ago the Consul agent last confirmed them.
+     * @return the last known good healthy nodes
+     * @throws ConsulServiceUnavailableException if service is not available
+     */
+    public ServiceHealth getServiceHealth() throws ConsulServiceUnavailableException {
+        return discovery.discoverServiceHealth();
     }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.client;
+
+import com.dwitech.eap.consulee.ConsulConfiguration;
+import com.dwitech.eap.consulee.ConsulConfigurationException;
+import com.dwitech.eap.consulee.annotation.Consul;
+import com.dwitech.eap.consulee.service.HealthQuery;
+import com.dwitech.eap.consulee.service.ServiceHealthCache;
+
+import java.lang.reflect.Member;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import static java.util.Arrays.asList;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * The clients injected with {@link Consul}, shared by all the injection points with the same options.
+ * Clients are thread-safe, so one instance per service and options serves every injection; an injection point
+ * already seen resolves its client with a single map read, without reading its annotation again.
+ * @since 1.0.0
+ */
+public final class ConsulServiceClients {
+    private static final Logger LOGGER = getLogger("com.dwitech.eap.consulee");
+    private static final ConcurrentMap<Member, ConsulServiceClient> BY_MEMBER = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, ConsulServiceClient> BY_OPTIONS = new ConcurrentHashMap<>();
+
+    private ConsulServiceClients() {}
+
+    /**
+     * @param member the field, method or constructor of an injection point
+     * @return the client of the injection point, or null if it was not registered
+     */
+    public static ConsulServiceClient get(final Member member) {
+        return member == null ? null : BY_MEMBER.get(member);
+    }
+
+    /**
+     * Returns the client for the options of an injection point, creating it if no injection point with the same options has one.
+     * @param member the field, method or constructor of the injection point, may be null
+     * @param consul the options of the injection point
+     * @param configuration the configuration of the deployment
+     * @return the shared client
+     */
+    public static ConsulServiceClient register(final Member member, final Consul consul, final ConsulConfiguration configuration) {
+        final String key = consul.serviceName() + '|' + consul.loadBalancer() + '|' + String.join(",", consul.tags())
+                + '|' + consul.datacenter() + '|' + consul.near() + '|' + consul.filter();
+        final ConsulServiceClient client = BY_OPTIONS.computeIfAbsent(key, k -> new ConsulServiceClient(configuration, consul.serviceName(),
+                consul.loadBalancer(), new HealthQuery(asList(consul.tags()), consul.datacenter(), consul.near(), consul.filter())));
+        if (member != null) {
+            BY_MEMBER.putIfAbsent(member, client);
+        }
+        return client;
+    }
+
+    /**
+     * Starts discovering the services of all the registered clients without waiting for them,
+     * after warming the cache from its snapshot file if one is configured.
+     * @param configuration the configuration of the deployment
+     */
+    public static void prewarm(final ConsulConfiguration configuration) {
+        persistCache(configuration);
+        final Set<ConsulServiceClient> clients = new HashSet<>(BY_OPTIONS.values());
+        for (ConsulServiceClient client : clients) {
+            try {
+                client.getServiceHealthAsync().whenComplete((health, failure) -> {
+                    if (failure != null) {
+                        LOGGER.warning(() -> "Could not pre-warm " + client.getApplicationName() + ": " + failure.getMessage());
+                    }
+                });
+            } catch (ConsulConfigurationException ccExc) {
+                LOGGER.config(() -> "Not pre-warming " + client.getApplicationName() + ": " + ccExc.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Persists the discovery cache to the {@code consulSnapshotFile}, if configured.
+     * @param configuration the configuration of the deployment
+     */
+    public static void persistCache(final ConsulConfiguration configuration) {
+        final String snapshotFile = configuration.get("consulSnapshotFile", null);
+        if (snapshotFile != null) {
+            ServiceHealthCache.getInstance().persistTo(Paths.get(snapshotFile),
+                    Long.parseLong(configuration.get("consulSnapshotInterval", null, "30")));
+        }
+    }
+
+    /**
+     * Forgets all the clients.
+     */
+    public static void clear() {
+        BY_MEMBER.clear();
+        BY_OPTIONS.clear();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+
+import java.util.List;
+
+import static com.dwitech.eap.consulee.loadbalancer.ObservedLatencies.latency;
+import static com.dwitech.eap.consulee.loadbalancer.OutstandingRequests.outstanding;
+import static java.util.concurrent.ThreadLocalRandom.current;
+
+/**
+ * Prefers the nearest nodes and spills over to farther ones as they get loaded.
+ * <p>
+ * The cost of a node is its observed latency times the number of requests in flight to it plus one.
+ * A node without recent calls is assumed as fast as the fastest observed node, and slower the farther
+ * it is ranked, which relies on the nodes being sorted by distance, as the agent does for
+ * {@code near=_agent} queries. Hence the nearest node is used until its load or latency makes
+ * the next one cheaper. One call in {@value #PROBE_ONE_IN} goes to the nearest node without recent calls,
+ * so that nodes that were never used, or not used for a while, get a latency again.
+ * @since 1.0.0
+ */
+public class LatencyAwareLoadBalancer implements LoadBalancer {
+    private static final int PROBE_ONE_IN = 64;
+
+    @Override
+    public DiscoveryResult choose(final List<DiscoveryResult> nodes) {
+        final int size = nodes.size();
+        if (size == 1) {
+            return nodes.get(0);
+        }
+        // a single pass: the cost of the unobserved nodes is only known once the fastest node is,
+        // so the cheapest of them is tracked by its cost relative to the fastest latency
+        long fastest = Long.MAX_VALUE;
+        int nearestUnobserved = -1;
+        int bestObserved = -1;
+        double bestObservedCost = Double.MAX_VALUE;
+        int bestUnobserved = -1;
+        double bestUnobservedFactor = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            final DiscoveryResult node = nodes.get(i);
+            final long nodeLatency = latency(node);
+            final int load = outstanding(node) + 1;
+            if (nodeLatency > 0) {
+                if (nodeLatency < fastest) {
+                    fastest = nodeLatency;
+                }
+                final double cost = (double) nodeLatency * load;
+                if (cost < bestObservedCost) {
+                    bestObserved = i;
+                    bestObservedCost = cost;
+                }
+            } else {
+                if (nearestUnobserved < 0) {
+                    nearestUnobserved = i;
+                }
+                final double factor = (double) (size + i) / size * load;
+                if (factor < bestUnobservedFactor) {
+                    bestUnobserved = i;
+                    bestUnobservedFactor = factor;
+                }
+            }
+        }
+        if (nearestUnobserved >= 0 && current().nextInt(PROBE_ONE_IN) == 0) {
+            return nodes.get(nearestUnobserved);
+        }
+        if (bestUnobserved < 0) {
+            return nodes.get(bestObserved);
+        }
+        if (bestObserved < 0) {
+            return nodes.get(bestUnobserved);
+        }
+        final double bestUnobservedCost = fastest * bestUnobservedFactor;
+        if (bestObservedCost < bestUnobservedCost || (bestObservedCost == bestUnobservedCost && bestObserved < bestUnobserved)) {
+            return nodes.get(bestObserved);
+        }
+        return nodes.get(bestUnobserved);
+    }
+}
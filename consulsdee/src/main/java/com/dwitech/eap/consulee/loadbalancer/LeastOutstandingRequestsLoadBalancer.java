@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+
+import java.util.List;
+
+import static com.dwitech.eap.consulee.loadbalancer.OutstandingRequests.outstanding;
+import static java.util.concurrent.ThreadLocalRandom.current;
+
+/**
+ * Picks the node with the fewest requests in flight, breaking ties randomly.
+ * @since 1.0.0
+ */
+public class LeastOutstandingRequestsLoadBalancer implements LoadBalancer {
+
+    @Override
+    public DiscoveryResult choose(final List<DiscoveryResult> nodes) {
+        DiscoveryResult chosen = null;
+        int least = Integer.MAX_VALUE;
+        int ties = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            final DiscoveryResult node = nodes.get(i);
+            final int count = outstanding(node);
+            if (count < least) {
+                chosen = node;
+                least = count;
+                ties = 1;
+            } else if (count == least && current().nextInt(++ties) == 0) {
+                // each of the tied nodes is kept with the same probability
+                chosen = node;
+            }
+        }
+        return chosen;
+    }
+}
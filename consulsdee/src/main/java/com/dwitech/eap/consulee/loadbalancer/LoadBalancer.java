@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+
+import java.util.List;
+
+/**
+ * Strategy choosing the node a call is sent to among the healthy nodes of a service.
+ * Implementations must be thread-safe. Custom implementations are selected by their class name
+ * and need a public no-arg constructor.
+ * @since 1.0.0
+ */
+public interface LoadBalancer {
+    /**
+     * Chooses one of the healthy nodes.
+     * @param nodes the healthy nodes of the service, never empty
+     * @return the chosen node
+     */
+    DiscoveryResult choose(List<DiscoveryResult> nodes);
+}
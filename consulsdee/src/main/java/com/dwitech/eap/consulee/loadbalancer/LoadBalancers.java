@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import com.dwitech.eap.consulee.ConsulConfigurationException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.lang.Thread.currentThread;
+
+/**
+ * Resolves the load balancer of a service.
+ * A strategy is either one of the built-in names or the class name of a {@link LoadBalancer} implementation.
+ * The balancer of a service is shared by all its clients, so that they rotate over the same state.
+ * @since 1.0.0
+ */
+public final class LoadBalancers {
+    public static final String ROUND_ROBIN = "round-robin";
+    public static final String WEIGHTED_RANDOM = "weighted-random";
+    public static final String LEAST_OUTSTANDING_REQUESTS = "least-outstanding-requests";
+    public static final String POWER_OF_TWO_CHOICES = "power-of-two-choices";
+    public static final String LATENCY_AWARE = "latency-aware";
+
+    private static final ConcurrentMap<String, LoadBalancer> BALANCERS = new ConcurrentHashMap<>();
+
+    private LoadBalancers() {}
+
+    /**
+     * Returns the load balancer for a service, creating it on first use.
+     * @param serviceName the name of the service
+     * @param strategy the strategy name or class name
+     * @return the shared load balancer
+     * @throws ConsulConfigurationException if the strategy is unknown
+     */
+    public static LoadBalancer forService(final String serviceName, final String strategy) {
+        final String key = serviceName + "#" + strategy;
+        LoadBalancer loadBalancer = BALANCERS.get(key);
+        if (loadBalancer == null) {
+            loadBalancer = BALANCERS.computeIfAbsent(key, k -> create(strategy));
+        }
+        return loadBalancer;
+    }
+
+    /**
+     * Creates a new load balancer.
+     * @param strategy the strategy name or class name
+     * @return the load balancer
+     * @throws ConsulConfigurationException if the strategy is unknown
+     */
+    public static LoadBalancer create(final String strategy) {
+        switch (strategy) {
+            case ROUND_ROBIN:
+                return new RoundRobinLoadBalancer();
+            case WEIGHTED_RANDOM:
+                return new WeightedRandomLoadBalancer();
+            case LEAST_OUTSTANDING_REQUESTS:
+                return new LeastOutstandingRequestsLoadBalancer();
+            case POWER_OF_TWO_CHOICES:
+                return new PowerOfTwoChoicesLoadBalancer();
+            case LATENCY_AWARE:
+                return new LatencyAwareLoadBalancer();
+            default:
+                try {
+                    return (LoadBalancer) Class.forName(strategy, true, currentThread().getContextClassLoader()).newInstance();
+                } catch (ReflectiveOperationException | ClassCastException exc) {
+                    throw new ConsulConfigurationException("Unknown load balancer " + strategy, exc);
+                }
+        }
+    }
+}
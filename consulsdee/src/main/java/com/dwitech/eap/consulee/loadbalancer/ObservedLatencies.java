@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Keeps a moving average of the latency of the calls per node, as measured by the {@link OutstandingRequestsFilter}.
+ * The average follows latency peaks at once and decays over about ten seconds once they are gone,
+ * so that a node getting slow is avoided quickly. An average without a sample for thirty seconds is dropped.
+ * @since 1.0.0
+ */
+public final class ObservedLatencies {
+    private static final double DECAY_NANOS = SECONDS.toNanos(10);
+    private static final long EXPIRY_NANOS = SECONDS.toNanos(30);
+    private static final ConcurrentMap<String, Ewma> LATENCIES = new ConcurrentHashMap<>();
+
+    private ObservedLatencies() {}
+
+    /**
+     * @param node the node
+     * @return the average latency of the calls to the node in nanoseconds, or -1 if there was no recent call
+     */
+    public static long latency(final DiscoveryResult node) {
+        return latency(node.getIp(), node.getPort());
+    }
+
+    public static long latency(final String host, final int port) {
+        final Ewma ewma = LATENCIES.get(key(host, port));
+        return ewma == null ? -1L : ewma.get(System.nanoTime());
+    }
+
+    static void record(final String host, final int port, final long nanos) {
+        LATENCIES.computeIfAbsent(key(host, port), k -> new Ewma()).update(nanos, System.nanoTime());
+    }
+
+    /**
+     * Forgets a node removed from its service.
+     * @param host the host of the node
+     * @param port the port of the node
+     */
+    public static void remove(final String host, final int port) {
+        LATENCIES.remove(key(host, port));
+    }
+
+    private static String key(final String host, final int port) {
+        return host + ":" + port;
+    }
+
+    private static final class Ewma {
+        private boolean sampled;
+        private long value;
+        private long lastUpdate;
+
+        private synchronized void update(final long sample, final long now) {
+            if (!sampled || sample > value) {
+                value = sample;
+            } else {
+                final double weight = Math.exp(-(now - lastUpdate) / DECAY_NANOS);
+                value = (long) (value * weight + sample * (1 - weight));
+            }
+            sampled = true;
+            lastUpdate = now;
+        }
+
+        private synchronized long get(final long now) {
+            return sampled && now - lastUpdate <= EXPIRY_NANOS ? value : -1L;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import java.net.URI;
+
+/**
+ * JAX-RS client filter reporting the status and latency of every response to the {@link OutlierDetector} of a service.
+ * The latency is measured from the start recorded by the {@link OutstandingRequestsFilter}.
+ * Calls failing without a response are not seen by filters and have to be reported with {@link OutlierDetector#failure(String, int)}.
+ * Warm-up requests are ignored.
+ * @since 1.0.0
+ */
+public class OutlierDetectionFilter implements ClientResponseFilter {
+    private final OutlierDetector detector;
+
+    public OutlierDetectionFilter(final OutlierDetector detector) {
+        this.detector = detector;
+    }
+
+    @Override
+    public void filter(final ClientRequestContext requestContext, final ClientResponseContext responseContext) {
+        if (requestContext.getProperty(OutstandingRequestsFilter.WARM_UP_PROPERTY) != null) {
+            return;
+        }
+        final URI uri = requestContext.getUri();
+        final Object start = requestContext.getProperty(OutstandingRequestsFilter.START_PROPERTY);
+        final long nanos = start instanceof Long ? System.nanoTime() - (Long) start : 0L;
+        detector.record(uri.getHost(), uri.getPort(), responseContext.getStatus(), nanos);
+    }
+}
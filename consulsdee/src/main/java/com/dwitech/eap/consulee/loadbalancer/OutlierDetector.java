@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import com.dwitech.eap.consulee.client.ConsulConfig;
+import com.dwitech.eap.consulee.metrics.ConsulMetricsProvider;
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * Passive health tracking of the nodes of a service, fed by the {@link OutlierDetectionFilter}.
+ * <p>
+ * A node failing {@code outlierConsecutiveFailures} calls in a row, a failure being a 5xx response,
+ * a response slower than {@code outlierLatencyThreshold} ms or a failure reported by the caller,
+ * is ejected from rotation at once, for {@code outlierEjectionTime} ms times the number of times
+ * it was ejected in a row (at most ten). Once that time is over the node is half-open: it stays out of rotation
+ * but a single call, the probe, is sent to it, which puts it back in rotation if it succeeds and ejects it again
+ * if it fails. A probe without outcome after {@code outlierEjectionTime} ms lets another call probe the node.
+ * At most {@code outlierMaxEjectionPercent} percent of the nodes are ejected at once, so that
+ * a service-wide failure does not leave the remaining nodes with all the load.
+ * @since 1.0.0
+ */
+public final class OutlierDetector {
+    private static final Logger LOGGER = getLogger("com.dwitech.eap.consulee");
+    private static final int MAX_EJECTION_MULTIPLIER = 10;
+    private static final ConcurrentMap<String, OutlierDetector> DETECTORS = new ConcurrentHashMap<>();
+
+    private final String serviceName;
+    private final int consecutiveFailures;
+    private final long latencyThresholdNanos;
+    private final long ejectionTimeNanos;
+    private final int maxEjectionPercent;
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final AtomicInteger unhealthy = new AtomicInteger();
+
+    private OutlierDetector(final String serviceName, final ConsulConfig consulConfig) {
+        this.serviceName = serviceName;
+        this.consecutiveFailures = Integer.parseInt(consulConfig.getOutlierConsecutiveFailures());
+        this.latencyThresholdNanos = MILLISECONDS.toNanos(Long.parseLong(consulConfig.getOutlierLatencyThreshold()));
+        this.ejectionTimeNanos = MILLISECONDS.toNanos(Long.parseLong(consulConfig.getOutlierEjectionTime()));
+        this.maxEjectionPercent = Integer.parseInt(consulConfig.getOutlierMaxEjectionPercent());
+    }
+
+    /**
+     * Returns the detector of a service, creating it on first use.
+     * @param serviceName the name of the service
+     * @param consulConfig the client configuration, with the outlier detection settings
+     * @return the shared detector
+     */
+    public static OutlierDetector forService(final String serviceName, final ConsulConfig consulConfig) {
+        OutlierDetector detector = DETECTORS.get(serviceName);
+        if (detector == null) {
+            detector = DETECTORS.computeIfAbsent(serviceName, name -> new OutlierDetector(name, consulConfig));
+        }
+        return detector;
+    }
+
+    /**
+     * Returns a half-open node to send the next call to, as its probe, if one is due.
+     * Only one caller at a time gets a node as a probe.
+     * @param nodes the healthy nodes of the service
+     * @return the node to probe, or null
+     */
+    public DiscoveryResult probe(final List<DiscoveryResult> nodes) {
+        if (unhealthy.get() == 0) {
+            return null;
+        }
+        final long now = System.nanoTime();
+        for (DiscoveryResult node : nodes) {
+            final Endpoint endpoint = endpoints.get(key(node.getIp(), node.getPort()));
+            if (endpoint != null && endpoint.tryProbe(now)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the ejected and half-open nodes, within the ejection cap.
+     * @param nodes the healthy nodes of the service
+     * @return the nodes in rotation, the given list itself when no node is ejected
+     */
+    public List<DiscoveryResult> available(final List<DiscoveryResult> nodes) {
+        if (unhealthy.get() == 0) {
+            return nodes;
+        }
+        final int maxEjected = nodes.size() * maxEjectionPercent / 100;
+        final List<DiscoveryResult> available = new ArrayList<>(nodes.size());
+        int ejected = 0;
+        for (DiscoveryResult node : nodes) {
+            final Endpoint endpoint = endpoints.get(key(node.getIp(), node.getPort()));
+            if (endpoint != null && endpoint.ejected && ejected < maxEjected) {
+                ejected++;
+            } else {
+                available.add(node);
+            }
+        }
+        return available.isEmpty() ? nodes : available;
+    }
+
+    /**
+     * Records the outcome of a call.
+     * @param host the host of the node
+     * @param port the port of the node
+     * @param status the HTTP status of the response
+     * @param nanos the duration of the call
+     */
+    public void record(final String host, final int port, final int status, final long nanos) {
+        if (status >= 500 || (latencyThresholdNanos > 0 && nanos > latencyThresholdNanos)) {
+            failure(host, port);
+        } else {
+            final Endpoint endpoint = endpoints.get(key(host, port));
+            if (endpoint != null) {
+                endpoint.success(System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Records a failed call, such as a refused connection or a timeout, that no response filter sees.
+     * @param host the host of the node
+     * @param port the port of the node
+     */
+    public void failure(final String host, final int port) {
+        if (consecutiveFailures <= 0) {
+            return;
+        }
+        endpoints.computeIfAbsent(key(host, port), Endpoint::new).failure(System.nanoTime());
+    }
+
+    /**
+     * Forgets a node that left the service, so that a new node on the same address and port starts in rotation.
+     * @param host the host of the node
+     * @param port the port of the node
+     */
+    public void remove(final String host, final int port) {
+        final Endpoint endpoint = endpoints.remove(key(host, port));
+        if (endpoint != null) {
+            endpoint.remove();
+        }
+    }
+
+    private static String key(final String host, final int port) {
+        return host + ":" + port;
+    }
+
+    private final class Endpoint {
+        private final String key;
+        private volatile int failures;
+        private volatile long ejectedUntil;
+        // out of rotation, while ejected and then half-open
+        private volatile boolean ejected;
+        private int ejections;
+        // forgotten, so that late outcomes of its calls are ignored
+        private boolean removed;
+        // the end of the lease of the current probe, 0 without probe
+        private final AtomicLong probeLease = new AtomicLong();
+
+        private Endpoint(final String key) {
+            this.key = key;
+        }
+
+        private boolean tryProbe(final long now) {
+            if (!ejected || ejectedUntil - now > 0) {
+                return false;
+            }
+            final long lease = probeLease.get();
+            return (lease == 0L || now - lease >= 0) && probeLease.compareAndSet(lease, now + ejectionTimeNanos);
+        }
+
+        private void success(final long now) {
+            if (failures == 0 && !ejected) {
+                return;
+            }
+            synchronized (this) {
+                if (removed || ejected && ejectedUntil - now > 0) {
+                    // a call sent before the ejection
+                    return;
+                }
+                failures = 0;
+                if (ejected) {
+                    ejected = false;
+                    ejections = 0;
+                    probeLease.set(0L);
+                    unhealthy.decrementAndGet();
+                    LOGGER.info(() -> key + " of " + serviceName + " is back in rotation");
+                }
+            }
+        }
+
+        private synchronized void failure(final long now) {
+            if (removed || ejected && ejectedUntil - now > 0) {
+                return;
+            }
+            if (!ejected && ++failures < consecutiveFailures) {
+                return;
+            }
+            // too many failures, or the half-open probe failed
+            failures = 0;
+            ejections = Math.min(ejections + 1, MAX_EJECTION_MULTIPLIER);
+            final long duration = ejectionTimeNanos * ejections;
+            if (!ejected) {
+                unhealthy.incrementAndGet();
+            }
+            ejected = true;
+            ejectedUntil = now + duration;
+            probeLease.set(0L);
+            LOGGER.warning(() -> key + " of " + serviceName + " ejected for " + NANOSECONDS.toMillis(duration) + "ms");
+            ConsulMetricsProvider.get().endpointEjected(serviceName, key, NANOSECONDS.toMillis(duration));
+        }
+
+        private synchronized void remove() {
+            removed = true;
+            if (ejected) {
+                ejected = false;
+                unhealthy.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps count of the requests in flight per node, as maintained by the {@link OutstandingRequestsFilter}.
+ * <p>
+ * Requests failing without a response are not seen by response filters. They are counted down when reported to
+ * {@link com.dwitech.eap.consulee.client.ConsulServiceClient#reportFailure(javax.ws.rs.client.WebTarget)}, and are
+ * otherwise dropped from the count once the client timeouts are over, as the client gave up on them by then.
+ * To do so without tracking each request, a request is counted in the time window it started in, a window
+ * being as long as the client timeouts, and only the requests of the current and the previous windows are counted.
+ * @since 1.0.0
+ */
+public final class OutstandingRequests {
+    private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+
+    private OutstandingRequests() {}
+
+    public static int outstanding(final DiscoveryResult node) {
+        return outstanding(node.getIp(), node.getPort());
+    }
+
+    public static int outstanding(final String host, final int port) {
+        final Counter counter = COUNTERS.get(key(host, port));
+        return counter == null ? 0 : counter.get(System.nanoTime());
+    }
+
+    static void increment(final String host, final int port, final long start, final long timeoutNanos) {
+        COUNTERS.computeIfAbsent(key(host, port), k -> new Counter(timeoutNanos)).increment(start);
+    }
+
+    static void decrement(final String host, final int port, final long start) {
+        final Counter counter = COUNTERS.get(key(host, port));
+        if (counter != null) {
+            counter.decrement(counter.window(start));
+        }
+    }
+
+    /**
+     * Counts down a request to a node that failed without a response.
+     * @param host the host of the node
+     * @param port the port of the node
+     */
+    public static void decrement(final String host, final int port) {
+        final Counter counter = COUNTERS.get(key(host, port));
+        if (counter != null) {
+            counter.release(System.nanoTime());
+        }
+    }
+
+    /**
+     * Forgets a node removed from its service.
+     * @param host the host of the node
+     * @param port the port of the node
+     */
+    public static void remove(final String host, final int port) {
+        COUNTERS.remove(key(host, port));
+    }
+
+    private static String key(final String host, final int port) {
+        return host + ":" + port;
+    }
+
+    /**
+     * Two slots, for the even and the odd windows, each holding its window in the high bits and its count in the low bits,
+     * so that a slot is reused for a new window and counted in a single atomic update.
+     */
+    private static final class Counter {
+        private final long windowNanos;
+        private final AtomicLongArray slots = new AtomicLongArray(2);
+
+        private Counter(final long windowNanos) {
+            this.windowNanos = Math.max(windowNanos, 1L);
+        }
+
+        private int window(final long nanos) {
+            return (int) Math.floorDiv(nanos, windowNanos);
+        }
+
+        private void increment(final long start) {
+            final int window = window(start);
+            final int slot = window & 1;
+            long value;
+            long updated;
+            do {
+                value = slots.get(slot);
+                // a slot still holding the requests of two windows ago starts over, they all timed out
+                updated = windowOf(value) == window ? value + 1 : pack(window, 1);
+            } while (!slots.compareAndSet(slot, value, updated));
+        }
+
+        private boolean decrement(final int window) {
+            final int slot = window & 1;
+            long value;
+            do {
+                value = slots.get(slot);
+                if (windowOf(value) != window || countOf(value) <= 0) {
+                    return false;
+                }
+            } while (!slots.compareAndSet(slot, value, value - 1));
+            return true;
+        }
+
+        // the failed request most likely started in the previous window
+        private void release(final long now) {
+            final int window = window(now);
+            if (!decrement(window - 1)) {
+                decrement(window);
+            }
+        }
+
+        private int get(final long now) {
+            final int window = window(now);
+            int count = 0;
+            for (int slot = 0; slot < 2; slot++) {
+                final long value = slots.get(slot);
+                final int slotWindow = windowOf(value);
+                if (slotWindow == window || slotWindow == window - 1) {
+                    count += countOf(value);
+                }
+            }
+            return count;
+        }
+
+        private static long pack(final int window, final int count) {
+            return ((long) window << 32) | (count & 0xFFFFFFFFL);
+        }
+
+        private static int windowOf(final long value) {
+            return (int) (value >>> 32);
+        }
+
+        private static int countOf(final long value) {
+            return (int) value;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import java.net.URI;
+
+/**
+ * JAX-RS client filter counting the requests in flight per node and measuring their latency.
+ * Requests failing before a response is received are not seen by response filters, see {@link OutstandingRequests}
+ * for how they are counted down.
+ * Requests carrying the {@link #WARM_UP_PROPERTY} only open connections and are neither counted nor measured.
+ * @since 1.0.0
+ */
+public class OutstandingRequestsFilter implements ClientRequestFilter, ClientResponseFilter {
+    /** Request property marking the requests sent to warm up the connections to a node. */
+    public static final String WARM_UP_PROPERTY = "com.dwitech.eap.consulee.warmup";
+    static final String START_PROPERTY = "com.dwitech.eap.consulee.start";
+
+    private final long timeoutNanos;
+
+    /**
+     * @param timeoutNanos the longest a request can be in flight, i.e. the sum of the client timeouts
+     */
+    public OutstandingRequestsFilter(final long timeoutNanos) {
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    @Override
+    public void filter(final ClientRequestContext requestContext) {
+        if (requestContext.getProperty(WARM_UP_PROPERTY) != null) {
+            return;
+        }
+        final URI uri = requestContext.getUri();
+        final long start = System.nanoTime();
+        OutstandingRequests.increment(uri.getHost(), uri.getPort(), start, timeoutNanos);
+        requestContext.setProperty(START_PROPERTY, start);
+    }
+
+    @Override
+    public void filter(final ClientRequestContext requestContext, final ClientResponseContext responseContext) {
+        final Object start = requestContext.getProperty(START_PROPERTY);
+        if (start instanceof Long) {
+            final URI uri = requestContext.getUri();
+            OutstandingRequests.decrement(uri.getHost(), uri.getPort(), (Long) start);
+            ObservedLatencies.record(uri.getHost(), uri.getPort(), System.nanoTime() - (Long) start);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+
+import java.util.List;
+
+import static com.dwitech.eap.consulee.loadbalancer.OutstandingRequests.outstanding;
+import static java.util.concurrent.ThreadLocalRandom.current;
+
+/**
+ * Picks two nodes at random and keeps the one with fewer requests in flight.
+ * @since 1.0.0
+ */
+public class PowerOfTwoChoicesLoadBalancer implements LoadBalancer {
+
+    @Override
+    public DiscoveryResult choose(final List<DiscoveryResult> nodes) {
+        final int size = nodes.size();
+        if (size == 1) {
+            return nodes.get(0);
+        }
+        final int first = current().nextInt(size);
+        final int second = (first + 1 + current().nextInt(size - 1)) % size;
+        final DiscoveryResult firstNode = nodes.get(first);
+        final DiscoveryResult secondNode = nodes.get(second);
+        return outstanding(secondNode) < outstanding(firstNode) ? secondNode : firstNode;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+
+import java.util.List;
+
+import static java.util.concurrent.ThreadLocalRandom.current;
+
+/**
+ * Picks a random node, proportionally to the passing weight registered for it in Consul.
+ * @since 1.0.0
+ */
+public class WeightedRandomLoadBalancer implements LoadBalancer {
+
+    @Override
+    public DiscoveryResult choose(final List<DiscoveryResult> nodes) {
+        int totalWeight = 0;
+        for (DiscoveryResult node : nodes) {
+            totalWeight += Math.max(node.getWeight(), 0);
+        }
+        if (totalWeight == 0) {
+            return nodes.get(current().nextInt(nodes.size()));
+        }
+        int remaining = current().nextInt(totalWeight);
+        for (DiscoveryResult node : nodes) {
+            remaining -= Math.max(node.getWeight(), 0);
+            if (remaining < 0) {
+                return node;
+            }
+        }
+        return nodes.get(nodes.size() - 1);
+    }
+}
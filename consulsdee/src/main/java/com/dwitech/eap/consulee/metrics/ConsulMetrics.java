@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.metrics;
+
+/**
+ * Receives the measurements of discovery and registration.
+ * Implement it to bridge to a metrics backend (Micrometer, MicroProfile Metrics, ...) and register it either
+ * as a CDI bean, through {@code META-INF/services/com.dwitech.eap.consulee.metrics.ConsulMetrics},
+ * or with {@link ConsulMetricsProvider#set(ConsulMetrics)}. Every method defaults to a no-op.
+ * Implementations are called on the request path and must be thread-safe and non-blocking.
+ * @since 1.0.0
+ */
+public interface ConsulMetrics {
+    /**
+     * Discards all the measurements.
+     */
+    ConsulMetrics NOOP = new ConsulMetrics() {};
+
+    /**
+     * @param serviceName the looked up service
+     * @param nanos the duration of the lookup
+     */
+    default void lookupLatency(String serviceName, long nanos) {}
+
+    /**
+     * @param serviceName a service whose nodes were served from the cache
+     */
+    default void cacheHit(String serviceName) {}
+
+    /**
+     * @param serviceName a service whose nodes had to be fetched from the agent
+     */
+    default void cacheMiss(String serviceName) {}
+
+    /**
+     * @param operation the failed call to the agent, such as {@code health} or {@code pass}
+     * @param error the error, whose type is the counter dimension
+     */
+    default void agentError(String operation, Throwable error) {}
+
+    /**
+     * @param serviceId the service whose TTL check was passed
+     * @param nanos the duration of the heartbeat
+     */
+    default void heartbeat(String serviceId, long nanos) {}
+
+    /**
+     * @param serviceId the service whose TTL check could not be passed
+     */
+    default void missedHeartbeat(String serviceId) {}
+
+    /**
+     * @param serviceName the watched service
+     * @param count its current number of healthy instances
+     */
+    default void healthyInstances(String serviceName, int count) {}
+
+    /**
+     * @param serviceName the called service
+     * @param endpoint the {@code host:port} of the node taken out of rotation
+     * @param millis how long the node is ejected
+     */
+    default void endpointEjected(String serviceName, String endpoint, long millis) {}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.metrics;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+import java.util.logging.Logger;
+
+import static java.lang.Thread.currentThread;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * Holds the {@link ConsulMetrics} of the deployment.
+ * Unless one is set, the first implementation registered with the {@link ServiceLoader} is used, or the no-op one.
+ * @since 1.0.0
+ */
+public final class ConsulMetricsProvider {
+    private static final Logger LOGGER = getLogger("com.dwitech.eap.consulee");
+
+    private static volatile ConsulMetrics metrics;
+
+    private ConsulMetricsProvider() {}
+
+    public static ConsulMetrics get() {
+        ConsulMetrics current = metrics;
+        if (current == null) {
+            synchronized (ConsulMetricsProvider.class) {
+                current = metrics;
+                if (current == null) {
+                    current = load();
+                    metrics = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    public static void set(final ConsulMetrics consulMetrics) {
+        metrics = consulMetrics == null ? ConsulMetrics.NOOP : consulMetrics;
+    }
+
+    private static ConsulMetrics load() {
+        final Iterator<ConsulMetrics> implementations = ServiceLoader.load(ConsulMetrics.class, currentThread().getContextClassLoader()).iterator();
+        if (implementations.hasNext()) {
+            final ConsulMetrics implementation = implementations.next();
+            LOGGER.config(() -> "Reporting Consul metrics to " + implementation.getClass().getName());
+            return implementation;
+        }
+        return ConsulMetrics.NOOP;
+    }
+}
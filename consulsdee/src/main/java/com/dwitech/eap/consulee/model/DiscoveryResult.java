@@ -15,13 +15,53 @@
  */
 package com.dwitech.eap.consulee.model;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+
+/**
+ * A healthy node of a service, with the tags and metadata it was registered with.
+ * Two results are equal when all their fields are; the hash code only depends on the address and the port.
+ */
 public final class DiscoveryResult {
     private final String ip;
     private final int port;
+    private final int weight;
+    private final String node;
+    private final List<String> tags;
+    private final Map<String, String> meta;
+    private final Map<String, String> nodeMeta;
+    private final int hashCode;
 
     public DiscoveryResult(String ip, int port) {
+        this(ip, port, 1);
+    }
+
+    public DiscoveryResult(String ip, int port, int weight) {
+        this(ip, port, weight, null, emptyList(), emptyMap(), emptyMap());
+    }
+
+    /**
+     * @param ip the address of the service
+     * @param port the port of the service
+     * @param weight the weight of the service while passing
+     * @param node the name of the Consul node the service runs on, may be null
+     * @param tags the tags of the service
+     * @param meta the metadata of the service
+     * @param nodeMeta the metadata of the node
+     */
+    public DiscoveryResult(String ip, int port, int weight, String node, List<String> tags, Map<String, String> meta, Map<String, String> nodeMeta) {
         this.ip = ip;
         this.port = port;
+        this.weight = weight;
+        this.node = node;
+        this.tags = tags;
+        this.meta = meta;
+        this.nodeMeta = nodeMeta;
+        this.hashCode = 31 * Objects.hashCode(ip) + port;
     }
 
     public String getIp() {
@@ -30,4 +70,43 @@ public final class DiscoveryResult {
     public int getPort() {
         return this.port;
     }
-}
\ No newline at end of file
+    public int getWeight() {
+        return this.weight;
+    }
+    public String getNode() {
+        return this.node;
+    }
+    public List<String> getTags() {
+        return this.tags;
+    }
+    public Map<String, String> getMeta() {
+        return this.meta;
+    }
+    public Map<String, String> getNodeMeta() {
+        return this.nodeMeta;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof DiscoveryResult)) {
+            return false;
+        }
+        final DiscoveryResult that = (DiscoveryResult) other;
+        return this.hashCode == that.hashCode && this.port == that.port && this.weight == that.weight && Objects.equals(this.ip, that.ip)
+                && Objects.equals(this.node, that.node) && Objects.equals(this.tags, that.tags)
+                && Objects.equals(this.meta, that.meta) && Objects.equals(this.nodeMeta, that.nodeMeta);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return this.ip + ":" + this.port;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.model;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable, compact set of the endpoints (address and port) of the healthy nodes of a service.
+ * <p>
+ * IPv4 and IPv6 addresses are packed into two longs, IPv4 ones as IPv4-mapped IPv6 addresses, and the endpoints are kept
+ * sorted in primitive arrays, so that two sets are compared and diffed in a single linear walk, without allocation.
+ * Addresses that are host names rather than IP literals are kept as strings and compared after the IP ones.
+ * @since 1.0.0
+ */
+public final class EndpointSet {
+    /** The set without endpoint. */
+    public static final EndpointSet EMPTY = new EndpointSet(new long[0], new long[0], new int[0], new String[0], new DiscoveryResult[0]);
+
+    // marks the endpoints whose address is a host name, ff00::/8 being multicast addresses
+    private static final long HOST_NAME = -1L;
+    private static final long IPV4_MAPPED = 0xffff00000000L;
+
+    private final long[] high;
+    private final long[] low;
+    private final int[] ports;
+    private final String[] hostNames;
+    private final DiscoveryResult[] nodes;
+    private final int hashCode;
+
+    private EndpointSet(final long[] high, final long[] low, final int[] ports, final String[] hostNames, final DiscoveryResult[] nodes) {
+        this.high = high;
+        this.low = low;
+        this.ports = ports;
+        this.hostNames = hostNames;
+        this.nodes = nodes;
+        int hash = 1;
+        for (int i = 0; i < ports.length; i++) {
+            hash = 31 * hash + Long.hashCode(high[i] ^ low[i]) + ports[i] + Objects.hashCode(hostNames[i]);
+        }
+        this.hashCode = hash;
+    }
+
+    /**
+     * @param nodes the healthy nodes of a service
+     * @return the endpoints of the nodes
+     */
+    public static EndpointSet of(final List<DiscoveryResult> nodes) {
+        final int size = nodes.size();
+        if (size == 0) {
+            return EMPTY;
+        }
+        final long[] packedHigh = new long[size];
+        final long[] packedLow = new long[size];
+        final String[] names = new String[size];
+        final Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            final String ip = nodes.get(i).getIp();
+            order[i] = i;
+            final long ipv4 = parseIpv4(ip);
+            if (ipv4 >= 0L) {
+                packedLow[i] = IPV4_MAPPED | ipv4;
+            } else if (!pack(ip, packedHigh, packedLow, i)) {
+                packedHigh[i] = HOST_NAME;
+                names[i] = ip == null ? "" : ip;
+            }
+        }
+        Arrays.sort(order, Comparator.<Integer, Long>comparing(i -> packedHigh[i], Long::compareUnsigned)
+                .thenComparing(i -> packedLow[i], Long::compareUnsigned)
+                .thenComparingInt(i -> nodes.get(i).getPort()).thenComparing(i -> names[i], Comparator.nullsFirst(Comparator.naturalOrder())));
+
+        final long[] high = new long[size];
+        final long[] low = new long[size];
+        final int[] ports = new int[size];
+        final String[] hostNames = new String[size];
+        final DiscoveryResult[] sorted = new DiscoveryResult[size];
+        for (int i = 0; i < size; i++) {
+            final int node = order[i];
+            high[i] = packedHigh[node];
+            low[i] = packedLow[node];
+            ports[i] = nodes.get(node).getPort();
+            hostNames[i] = names[node];
+            sorted[i] = nodes.get(node);
+        }
+        return new EndpointSet(high, low, ports, hostNames, sorted);
+    }
+
+    public int size() {
+        return ports.length;
+    }
+
+    /**
+     * @param index the position of the endpoint, in the order of the set
+     * @return the node of the endpoint
+     */
+    public DiscoveryResult get(final int index) {
+        return nodes[index];
+    }
+
+    /**
+     * @param ip the address, an IP literal or a host name
+     * @param port the port
+     * @return true if the set contains the endpoint
+     */
+    public boolean contains(final String ip, final int port) {
+        final long ipv4 = parseIpv4(ip);
+        if (ipv4 >= 0L) {
+            return indexOf(0L, IPV4_MAPPED | ipv4, port, null) >= 0;
+        }
+        final long[] packedHigh = new long[1];
+        final long[] packedLow = new long[1];
+        if (pack(ip, packedHigh, packedLow, 0)) {
+            return indexOf(packedHigh[0], packedLow[0], port, null) >= 0;
+        }
+        return indexOf(HOST_NAME, 0L, port, ip == null ? "" : ip) >= 0;
+    }
+
+    /**
+     * Walks the differences with a newer set of endpoints, in a single pass and without allocation.
+     * @param newer the newer set
+     * @param visitor notified of the endpoints only in this set, as removed, of the ones only in the newer set, as added,
+     * and of the ones in both whose nodes are not equal, as modified
+     * @return true if the sets differ
+     */
+    public boolean diff(final EndpointSet newer, final Visitor visitor) {
+        boolean changed = false;
+        int i = 0;
+        int j = 0;
+        while (i < size() || j < newer.size()) {
+            final int comparison = i == size() ? 1 : j == newer.size() ? -1 : compare(this, i, newer, j);
+            if (comparison == 0) {
+                if (!nodes[i].equals(newer.nodes[j])) {
+                    visitor.modified(nodes[i], newer.nodes[j]);
+                    changed = true;
+                }
+                i++;
+                j++;
+            } else if (comparison < 0) {
+                visitor.removed(nodes[i++]);
+                changed = true;
+            } else {
+                visitor.added(newer.nodes[j++]);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof EndpointSet)) {
+            return false;
+        }
+        final EndpointSet that = (EndpointSet) other;
+        return hashCode == that.hashCode && Arrays.equals(ports, that.ports) && Arrays.equals(low, that.low)
+                && Arrays.equals(high, that.high) && Arrays.equals(hostNames, that.hostNames);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    private int indexOf(final long addressHigh, final long addressLow, final int port, final String hostName) {
+        int from = 0;
+        int to = size() - 1;
+        while (from <= to) {
+            final int middle = (from + to) >>> 1;
+            int comparison = Long.compareUnsigned(high[middle], addressHigh);
+            if (comparison == 0) {
+                comparison = Long.compareUnsigned(low[middle], addressLow);
+            }
+            if (comparison == 0) {
+                comparison = Integer.compare(ports[middle], port);
+            }
+            if (comparison == 0 && hostName != null) {
+                comparison = hostNames[middle].compareTo(hostName);
+            }
+            if (comparison == 0) {
+                return middle;
+            } else if (comparison < 0) {
+                from = middle + 1;
+            } else {
+                to = middle - 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int compare(final EndpointSet left, final int i, final EndpointSet right, final int j) {
+        int comparison = Long.compareUnsigned(left.high[i], right.high[j]);
+        if (comparison == 0) {
+            comparison = Long.compareUnsigned(left.low[i], right.low[j]);
+        }
+        if (comparison == 0) {
+            comparison = Integer.compare(left.ports[i], right.ports[j]);
+        }
+        if (comparison == 0 && left.hostNames[i] != null) {
+            comparison = left.hostNames[i].compareTo(right.hostNames[j]);
+        }
+        return comparison;
+    }
+
+    // parses a dotted IPv4 literal without allocating, -1 if it is not one
+    private static long parseIpv4(final String ip) {
+        if (ip == null || ip.isEmpty()) {
+            return -1L;
+        }
+        long address = 0L;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = 0; i < ip.length(); i++) {
+            final char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                if (++digits > 3 || octet > 255) {
+                    return -1L;
+                }
+            } else if (c == '.' && digits > 0 && dots < 3) {
+                address = address << 8 | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            } else {
+                return -1L;
+            }
+        }
+        return dots == 3 && digits > 0 ? address << 8 | octet : -1L;
+    }
+
+    // packs an IPv6 literal, which InetAddress parses without any name lookup, false if it is not one
+    private static boolean pack(final String ip, final long[] high, final long[] low, final int index) {
+        if (!isIpv6Literal(ip)) {
+            return false;
+        }
+        try {
+            final byte[] bytes = InetAddress.getByName(ip.startsWith("[") ? ip.substring(1, ip.length() - 1) : ip).getAddress();
+            if (bytes.length == 4) {
+                low[index] = IPV4_MAPPED | ((bytes[0] & 0xffL) << 24 | (bytes[1] & 0xffL) << 16 | (bytes[2] & 0xffL) << 8 | (bytes[3] & 0xffL));
+                return true;
+            }
+            long packedHigh = 0L;
+            long packedLow = 0L;
+            for (int b = 0; b < 8; b++) {
+                packedHigh = packedHigh << 8 | (bytes[b] & 0xffL);
+                packedLow = packedLow << 8 | (bytes[b + 8] & 0xffL);
+            }
+            high[index] = packedHigh;
+            low[index] = packedLow;
+            return true;
+        } catch (UnknownHostException | IndexOutOfBoundsException exc) {
+            return false;
+        }
+    }
+
+    private static boolean isIpv6Literal(final String ip) {
+        if (ip == null || ip.indexOf(':') < 0) {
+            return false;
+        }
+        for (int i = 0; i < ip.length(); i++) {
+            final char c = ip.charAt(i);
+            if (c == '%') {
+                // followed by the scope
+                return true;
+            }
+            if (Character.digit(c, 16) < 0 && c != ':' && c != '.' && c != '[' && c != ']') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Notified of the differences between two sets of endpoints.
+     */
+    public interface Visitor {
+        /**
+         * @param node the node of an endpoint only in the newer set
+         */
+        void added(DiscoveryResult node);
+
+        /**
+         * @param node the node of an endpoint only in the older set
+         */
+        void removed(DiscoveryResult node);
+
+        /**
+         * @param previous the node of an endpoint in both sets, in the older set
+         * @param current the node of the same endpoint in the newer set, whose weight, tags or metadata differ
+         */
+        default void modified(DiscoveryResult previous, DiscoveryResult current) {}
+    }
+}
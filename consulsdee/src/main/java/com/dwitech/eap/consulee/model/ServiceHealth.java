@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.model;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * Immutable snapshot of the healthy nodes of a service together with the Consul index it was read at.
+ * Successive snapshots of a service are {@link #reconcile(ServiceHealth) reconciled}, so that unchanged nodes are shared between them.
+ * @since 1.0.0
+ */
+public final class ServiceHealth {
+    private final String serviceName;
+    private final long index;
+    private final Set<DiscoveryResult> nodes;
+    private final List<DiscoveryResult> nodeList;
+    private final long timestamp;
+    private volatile EndpointSet endpoints;
+
+    public ServiceHealth(String serviceName, long index, Set<DiscoveryResult> nodes) {
+        this(serviceName, index, nodes, System.currentTimeMillis());
+    }
+
+    /**
+     * @param serviceName the name of the service
+     * @param index the Consul index the nodes were read at
+     * @param nodes the healthy nodes
+     * @param timestamp when the agent returned or last confirmed the nodes, in epoch milliseconds
+     */
+    public ServiceHealth(String serviceName, long index, Set<DiscoveryResult> nodes, long timestamp) {
+        this.serviceName = serviceName;
+        this.index = index;
+        this.nodes = unmodifiableSet(nodes);
+        this.nodeList = unmodifiableList(asList(nodes.toArray(new DiscoveryResult[nodes.size()])));
+        this.timestamp = timestamp;
+    }
+
+    private ServiceHealth(ServiceHealth nodes, long index, long timestamp) {
+        this.serviceName = nodes.serviceName;
+        this.index = index;
+        this.nodes = nodes.nodes;
+        this.nodeList = nodes.nodeList;
+        this.endpoints = nodes.endpoints;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Reconciles this snapshot with the previous one of the same service.
+     * When the nodes did not change, e.g. when a blocking query timed out or only a check output changed,
+     * the nodes of the previous snapshot are kept together with the index and the timestamp of this one.
+     * Otherwise the nodes that did not change are replaced by the previous instances, so that only the changed ones are retained.
+     * @param previous the previous snapshot
+     * @return a snapshot equivalent to this one, sharing the nodes of the previous one that did not change
+     */
+    public ServiceHealth reconcile(ServiceHealth previous) {
+        if (previous == null || previous == this) {
+            return this;
+        }
+        if (this.nodeList.equals(previous.nodeList)) {
+            return new ServiceHealth(previous, this.index, this.timestamp);
+        }
+        final Map<DiscoveryResult, DiscoveryResult> previousNodes = new HashMap<>();
+        for (DiscoveryResult node : previous.nodeList) {
+            previousNodes.put(node, node);
+        }
+        final Set<DiscoveryResult> reconciled = new LinkedHashSet<>();
+        for (DiscoveryResult node : this.nodeList) {
+            reconciled.add(previousNodes.getOrDefault(node, node));
+        }
+        return new ServiceHealth(this.serviceName, this.index, reconciled, this.timestamp);
+    }
+
+    /**
+     * Tells whether the nodes of this snapshot are the ones of another snapshot, as kept by {@link #reconcile(ServiceHealth)}.
+     * @param other the other snapshot
+     * @return true if both snapshots share their nodes
+     */
+    public boolean hasSameNodes(ServiceHealth other) {
+        return other != null && this.nodes == other.nodes;
+    }
+
+    public String getServiceName() {
+        return this.serviceName;
+    }
+    public long getIndex() {
+        return this.index;
+    }
+    public Set<DiscoveryResult> getNodes() {
+        return this.nodes;
+    }
+    /**
+     * The healthy nodes as an immutable, indexable list, as used by the load balancers.
+     * @return the healthy nodes
+     */
+    public List<DiscoveryResult> getNodeList() {
+        return this.nodeList;
+    }
+    /**
+     * The endpoints of the healthy nodes, packed for cheap comparison and diffing.
+     * @return the endpoints
+     */
+    public EndpointSet getEndpoints() {
+        EndpointSet packed = this.endpoints;
+        if (packed == null) {
+            packed = EndpointSet.of(this.nodeList);
+            this.endpoints = packed;
+        }
+        return packed;
+    }
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * The time elapsed since the agent returned or last confirmed this snapshot.
+     * While the service is watched, blocking queries confirm it at least once per wait time.
+     * @return the age in milliseconds
+     */
+    public long getAge() {
+        return System.currentTimeMillis() - this.timestamp;
+    }
+}
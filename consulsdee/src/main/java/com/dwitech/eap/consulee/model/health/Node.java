@@ -15,9 +15,12 @@
  */
 package com.dwitech.eap.consulee.model.health;
 
+import java.util.Map;
+
 public class Node {
     private String Address;
     private String Node;
+    private Map<String, String> Meta;
 
     public Node() {
     }
@@ -35,4 +38,11 @@ public class Node {
     public void setNode(String Node) {
         this.Node = Node;
     }
-}
\ No newline at end of file
+
+    public Map<String, String> getMeta() {
+        return this.Meta;
+    }
+    public void setMeta(Map<String, String> Meta) {
+        this.Meta = Meta;
+    }
+}
@@ -17,6 +17,7 @@ package com.dwitech.eap.consulee.model.health;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class Service {
     private String Address;
@@ -24,6 +25,8 @@ public class Service {
     private Integer Port;
     private String Service;
     private List<String> Tags = new ArrayList();
+    private Weights Weights;
+    private Map<String, String> Meta;
 
     public Service() {
     }
@@ -62,4 +65,18 @@ public class Service {
     public void setTags(List<String> Tags) {
         this.Tags = Tags;
     }
-}
\ No newline at end of file
+
+    public Weights getWeights() {
+        return this.Weights;
+    }
+    public void setWeights(Weights Weights) {
+        this.Weights = Weights;
+    }
+
+    public Map<String, String> getMeta() {
+        return this.Meta;
+    }
+    public void setMeta(Map<String, String> Meta) {
+        this.Meta = Meta;
+    }
+}
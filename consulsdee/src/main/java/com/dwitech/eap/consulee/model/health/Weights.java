@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.model.health;
+
+public class Weights {
+    private Integer Passing;
+    private Integer Warning;
+
+    public Weights() {
+    }
+
+    public Integer getPassing() {
+        return this.Passing;
+    }
+    public void setPassing(Integer Passing) {
+        this.Passing = Passing;
+    }
+
+    public Integer getWarning() {
+        return this.Warning;
+    }
+    public void setWarning(Integer Warning) {
+        this.Warning = Warning;
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import com.dwitech.eap.consulee.ConsulConfiguration;
+import com.dwitech.eap.consulee.metrics.ConsulMetricsProvider;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.dwitech.eap.consulee.service.ConsulServiceDiscovery.DEFAULT_CONSUL_CONNECT_TIMEOUT;
+import static com.dwitech.eap.consulee.service.ConsulServiceDiscovery.DEFAULT_CONSUL_READ_TIMEOUT;
+import static com.dwitech.eap.consulee.service.ConsulServiceDiscovery.DEFAULT_WATCH_WAIT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * Configuration read from the Consul KV store, under the prefix configured as {@code consulKvPrefix}.
+ * <p>
+ * The key/values under the prefix are read at once with a recursive query into an immutable {@link KeyValueSnapshot},
+ * kept fresh by a background watcher issuing blocking queries, so that reads are plain map lookups without I/O.
+ * Listeners are notified of every change on the thread of the watcher. When the agent fails, the last snapshot
+ * keeps being served while the watcher retries with an exponential backoff; so does an empty snapshot while
+ * the prefix does not exist.
+ * @since 1.0.0
+ */
+public final class ConsulKeyValueSource {
+    private static final Logger LOGGER = getLogger("com.dwitech.eap.consulee");
+    private static final String CONSUL_KV_API_ENDPOINT_TEMPLATE = "http://%s:%s/v1/kv/%s?recurse";
+    private static final long RETRY_DELAY_MILLIS = 1000L;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000L;
+
+    private static final ConsulKeyValueSource INSTANCE = new ConsulKeyValueSource();
+
+    private final Set<Consumer<KeyValuesChanged>> listeners = new CopyOnWriteArraySet<>();
+    private volatile KeyValueSnapshot snapshot = KeyValueSnapshot.EMPTY;
+    private Watcher watcher;
+
+    private ConsulKeyValueSource() {}
+
+    public static ConsulKeyValueSource getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the last snapshot read, empty until the KV store is watched
+     */
+    public KeyValueSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @param key the key, relative to the prefix
+     * @return the value in the last snapshot, null if the key does not exist
+     */
+    public String get(final String key) {
+        return snapshot.get(key);
+    }
+
+    /**
+     * @param key the key, relative to the prefix
+     * @param defaultValue the value returned when the key does not exist
+     * @return the value in the last snapshot, or the default value
+     */
+    public String get(final String key, final String defaultValue) {
+        return snapshot.get(key, defaultValue);
+    }
+
+    /**
+     * Registers a listener notified of every change of the key/values, on the thread of the watcher.
+     * @param listener the listener
+     */
+    public void addListener(final Consumer<KeyValuesChanged> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to unregister
+     */
+    public void removeListener(final Consumer<KeyValuesChanged> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Reads the key/values under {@code consulKvPrefix} and starts watching them.
+     * Does nothing if the prefix or the agent is not configured, or if they are already watched.
+     * The first read is done on the calling thread, so that the configuration is available once this method returns.
+     * @param configuration the configuration of the deployment
+     */
+    public synchronized void watch(final ConsulConfiguration configuration) {
+        final String prefix = configuration.get("consulKvPrefix", null);
+        final String consulHost = configuration.get("consulHost", null);
+        final String consulPort = configuration.get("consulPort", null);
+        if (watcher != null || prefix == null || consulHost == null || consulPort == null) {
+            return;
+        }
+        final String relativePrefix = prefix.startsWith("/") ? prefix.substring(1) : prefix;
+        final String datacenter = configuration.get("consulDatacenter", null);
+        final ConsulTransport transport = new UrlConnectionTransport(
+                Integer.parseInt(configuration.get("consulConnectTimeout", null, DEFAULT_CONSUL_CONNECT_TIMEOUT)),
+                Integer.parseInt(configuration.get("consulReadTimeout", null, DEFAULT_CONSUL_READ_TIMEOUT)));
+        try {
+            final String url = String.format(CONSUL_KV_API_ENDPOINT_TEMPLATE, consulHost, consulPort, encodePath(relativePrefix))
+                    + (datacenter == null ? "" : "&dc=" + URLEncoder.encode(datacenter, "UTF-8"));
+            watcher = new Watcher(transport, url, relativePrefix, Integer.parseInt(configuration.get("consulWatchWait", null, DEFAULT_WATCH_WAIT)));
+        } catch (UnsupportedEncodingException ueExc) {
+            throw new IllegalStateException(ueExc);
+        }
+        try {
+            update(watcher.read(0L, 0));
+        } catch (FileNotFoundException fnfExc) {
+            LOGGER.config(() -> "No key/value under " + relativePrefix + " yet");
+        } catch (IOException ioExc) {
+            ConsulMetricsProvider.get().agentError("kv", ioExc);
+            LOGGER.warning(() -> "Could not read the key/values under " + relativePrefix + ": " + ioExc.getMessage());
+        }
+        new DaemonThreadFactory("consulee-kv-").newThread(watcher).start();
+    }
+
+    /**
+     * Stops watching the KV store. The last snapshot keeps being served.
+     */
+    public synchronized void shutdown() {
+        if (watcher != null) {
+            watcher.stop();
+            watcher = null;
+        }
+    }
+
+    // encodes each segment of the path, keeping the slashes between them
+    static String encodePath(final String path) throws UnsupportedEncodingException {
+        final String[] segments = path.split("/", -1);
+        final StringBuilder encoded = new StringBuilder(path.length());
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                encoded.append('/');
+            }
+            // URLEncoder encodes for forms, where a space is a plus
+            encoded.append(URLEncoder.encode(segments[i], "UTF-8").replace("+", "%20"));
+        }
+        return encoded.toString();
+    }
+
+    private void update(final KeyValueSnapshot next) {
+        final KeyValueSnapshot previous = snapshot;
+        snapshot = next;
+        if (!next.getValues().equals(previous.getValues())) {
+            final KeyValuesChanged event = new KeyValuesChanged(previous, next);
+            LOGGER.config(() -> "key/values changed: " + event.getChangedKeys());
+            for (Consumer<KeyValuesChanged> listener : listeners) {
+                try {
+                    listener.accept(event);
+                } catch (RuntimeException rExc) {
+                    LOGGER.log(Level.WARNING, "key/values listener failed", rExc);
+                }
+            }
+        }
+    }
+
+    private final class Watcher implements Runnable {
+        private final ConsulTransport transport;
+        private final String url;
+        private final String prefix;
+        private final int waitSeconds;
+        private volatile boolean running = true;
+        private volatile Thread thread;
+
+        private Watcher(final ConsulTransport transport, final String url, final String prefix, final int waitSeconds) {
+            this.transport = transport;
+            this.url = url;
+            this.prefix = prefix;
+            this.waitSeconds = waitSeconds;
+        }
+
+        private KeyValueSnapshot read(final long index, final int waitSeconds) throws IOException {
+            if (index == 0L) {
+                return transport.get(url, 0, this::decode);
+            }
+            // Consul adds up to wait/16 of jitter to the wait time
+            final int readTimeout = (int) SECONDS.toMillis(waitSeconds + waitSeconds / 16 + 5);
+            return transport.get(url + "&index=" + index + "&wait=" + waitSeconds + "s", readTimeout, this::decode);
+        }
+
+        private KeyValueSnapshot decode(final InputStream body, final long consulIndex) throws IOException {
+            final Map<String, String> values = new HashMap<>();
+            // the body is owned, and closed, by the transport
+            final JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(body, UTF_8)));
+            try {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    String key = null;
+                    String value = "";
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "Key":
+                                key = reader.nextString();
+                                break;
+                            case "Value":
+                                if (reader.peek() == JsonToken.NULL) {
+                                    reader.nextNull();
+                                } else {
+                                    value = new String(Base64.getDecoder().decode(reader.nextString()), UTF_8);
+                                }
+                                break;
+                            default:
+                                reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    // keys ending with a slash are folders
+                    if (key != null && key.startsWith(prefix) && !key.endsWith("/")) {
+                        values.put(key.substring(prefix.length()), value);
+                    }
+                }
+                reader.endArray();
+            } catch (IllegalStateException | IllegalArgumentException exc) {
+                throw new IOException("Malformed key/value response", exc);
+            }
+            return new KeyValueSnapshot(consulIndex, values);
+        }
+
+        private void stop() {
+            running = false;
+            final Thread watching = thread;
+            if (watching != null) {
+                watching.interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            LOGGER.config(() -> "watching the key/values under " + prefix);
+            long retryDelay = RETRY_DELAY_MILLIS;
+            while (running) {
+                try {
+                    final KeyValueSnapshot previous = snapshot;
+                    final KeyValueSnapshot next = read(previous.getIndex(), waitSeconds);
+                    // the index went backwards, Consul recommends starting over
+                    update(next.getIndex() < previous.getIndex() ? new KeyValueSnapshot(0L, next.getValues()) : next);
+                    retryDelay = RETRY_DELAY_MILLIS;
+                    if (next.getIndex() == 0L) {
+                        // no index returned, avoid spinning on non-blocking queries
+                        Thread.sleep(RETRY_DELAY_MILLIS);
+                    }
+                } catch (FileNotFoundException fnfExc) {
+                    // the prefix does not exist (anymore)
+                    update(KeyValueSnapshot.EMPTY);
+                    if (!pause(retryDelay)) {
+                        break;
+                    }
+                    retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+                } catch (IOException ioExc) {
+                    ConsulMetricsProvider.get().agentError("kv", ioExc);
+                    final long delay = retryDelay;
+                    LOGGER.warning(() -> "watch of the key/values under " + prefix + " failed, retrying in " + delay + "ms: " + ioExc.getMessage());
+                    if (!pause(delay)) {
+                        break;
+                    }
+                    retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+                } catch (InterruptedException iExc) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            LOGGER.config(() -> "stopped watching the key/values under " + prefix);
+        }
+
+        private boolean pause(final long delay) {
+            try {
+                Thread.sleep(delay);
+                return running;
+            } catch (InterruptedException iExc) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
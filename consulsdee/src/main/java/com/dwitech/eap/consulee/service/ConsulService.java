@@ -16,62 +16,168 @@
 package com.dwitech.eap.consulee.service;
 
 import com.dwitech.eap.consulee.model.DiscoveryResult;
-import com.dwitech.eap.consulee.model.health.HealthCheck;
-import com.google.gson.Gson;
+import com.dwitech.eap.consulee.model.ServiceHealth;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+
+import static com.dwitech.eap.consulee.service.DiscoveryExecutors.queryExecutor;
+import static com.dwitech.eap.consulee.service.DiscoveryExecutors.scheduler;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public final class ConsulService {
-    private static final String CONSUL_HEALTH_CHECK_API_ENDPOINT_TEMPLATE = "http://%s:%d/v1/health/service/%s?%s";
-    private final String consulAgentLocalWebServiceHost;
-    private final String consulAgentLocalWebServicePort;
-    private String tag;
+    private static final String CONSUL_HEALTH_CHECK_API_ENDPOINT_TEMPLATE = "http://%s:%d/v1/health/service/";
+    private static final ConsulTransport DEFAULT_TRANSPORT = new UrlConnectionTransport(2000, 10000);
+    private final String consulHealthCheckApiEndpoint;
+    private final ConsulTransport transport;
+    private final HealthResponseDecoder decoder;
+    private final HealthQuery query;
+    private final ConcurrentMap<String, String> cacheKeys = new ConcurrentHashMap<>();
+
+    /**
+     * @param consulHost the host of the agent
+     * @param consulPort the HTTP port of the agent
+     * @param query the options applied by the agent to the health queries
+     * @param transport the transport of the queries
+     * @param decoder the decoder of the responses
+     */
+    public ConsulService(String consulHost, String consulPort, HealthQuery query, ConsulTransport transport, HealthResponseDecoder decoder) {
+        this.consulHealthCheckApiEndpoint = String.format(CONSUL_HEALTH_CHECK_API_ENDPOINT_TEMPLATE, consulHost, Integer.valueOf(consulPort));
+        this.query = query;
+        this.transport = transport;
+        this.decoder = decoder;
+    }
+
+    public ConsulService(String consulHost, String consulPort, String tag, ConsulTransport transport, HealthResponseDecoder decoder) {
+        this(consulHost, consulPort, HealthQuery.of(tag, null, null, null), transport, decoder);
+    }
 
     public ConsulService(String consulHost, String consulPort, String tag) {
-        this.consulAgentLocalWebServiceHost = consulHost;
-        this.consulAgentLocalWebServicePort = consulPort;
-        this.tag = tag;
+        this(consulHost, consulPort, tag, DEFAULT_TRANSPORT, new ProjectionHealthResponseDecoder());
+    }
+
+    public ConsulService(String consulHost, String consulPort, HealthQuery query) {
+        this(consulHost, consulPort, query, DEFAULT_TRANSPORT, new ProjectionHealthResponseDecoder());
     }
 
     public ConsulService(String consulHost, String consulPort) {
-        this.consulAgentLocalWebServiceHost = consulHost;
-        this.consulAgentLocalWebServicePort = consulPort;
+        this(consulHost, consulPort, HealthQuery.ALL);
+    }
+
+    /**
+     * @return the options applied by the agent to the health queries
+     */
+    public HealthQuery getQuery() {
+        return this.query;
     }
 
+    /**
+     * @param serviceName the service to look up
+     * @return the key of the service in the caches, made of its name and of the query options
+     */
+    String cacheKey(String serviceName) {
+        final String key = this.cacheKeys.get(serviceName);
+        return key != null ? key : this.cacheKeys.computeIfAbsent(serviceName,
+                name -> this.query.isEmpty() ? name : name + '?' + this.query.toQueryString());
+    }
+
+    /**
+     * Looks up the healthy nodes of several services and merges them.
+     * Blocking counterpart of {@link #discoverHealthyNodesAsync(Set, long)}.
+     * @param serviceNames the services to look up
+     * @return the healthy nodes of all the services
+     * @throws IOException if one of the lookups fails
+     */
     public Set<DiscoveryResult> discoverHealthyNodes(Set<String> serviceNames) throws IOException {
-        HashSet result = new HashSet();
-        Iterator serviceNamesIt = serviceNames.iterator();
-
-        while(serviceNamesIt.hasNext()) {
-            String serviceName = (String)serviceNamesIt.next();
-            String consulServiceHealthEndPoint = this.getConsulHealthCheckApiUrl(serviceName);
-            String apiResponse = Utility.readUrl(consulServiceHealthEndPoint);
-            HealthCheck[] healthChecks = new Gson().fromJson(apiResponse, HealthCheck[].class);
-            Arrays.stream(healthChecks).forEach((healthCheck) -> {
-                String ip = healthCheck.getService().getAddress();
-                int port = healthCheck.getService().getPort().intValue();
-                if(ip == null || ip.isEmpty()) {
-                    ip = healthCheck.getNode().getAddress();
-                }
-
-                result.add(new DiscoveryResult(ip, port));
-            });
+        final Set<DiscoveryResult> result = new HashSet<>();
+        try {
+            discoverHealthyNodesAsync(serviceNames, 0L).get().values().forEach(result::addAll);
+        } catch (InterruptedException iExc) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while discovering " + serviceNames);
+        } catch (ExecutionException eExc) {
+            final Throwable cause = eExc.getCause() instanceof UncheckedIOException ? eExc.getCause().getCause() : eExc.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
         }
-
         return result;
     }
 
-    private final String getConsulHealthCheckApiUrl(String serviceName) {
-        StringBuffer queryParam = new StringBuffer("passing");
-        if(this.tag != null) {
-            queryParam.append("&tag=");
-            queryParam.append(this.tag.trim());
+    /**
+     * Looks up the healthy nodes of several services concurrently.
+     * @param serviceNames the services to look up
+     * @param timeoutMillis the maximum duration of each lookup, 0 to rely on the transport read timeout
+     * @return the healthy nodes per service, completed exceptionally if one of the lookups fails
+     */
+    public CompletableFuture<Map<String, Set<DiscoveryResult>>> discoverHealthyNodesAsync(Set<String> serviceNames, long timeoutMillis) {
+        final Map<String, CompletableFuture<Set<DiscoveryResult>>> queries = new HashMap<>();
+        for (String serviceName : serviceNames) {
+            queries.put(serviceName, within(supplyAsync(() -> query(serviceName), queryExecutor()), timeoutMillis, serviceName));
+        }
+        return allOf(queries.values().toArray(new CompletableFuture<?>[queries.size()])).thenApply(done -> {
+            final Map<String, Set<DiscoveryResult>> result = new HashMap<>();
+            queries.forEach((serviceName, query) -> result.put(serviceName, query.join()));
+            return result;
+        });
+    }
+
+    private Set<DiscoveryResult> query(String serviceName) {
+        try {
+            return this.transport.get(this.getConsulHealthCheckApiUrl(serviceName), 0, (body, consulIndex) -> this.decoder.decode(body));
+        } catch (IOException ioExc) {
+            throw new UncheckedIOException(ioExc);
+        }
+    }
+
+    private static <T> CompletableFuture<T> within(CompletableFuture<T> query, long timeoutMillis, String serviceName) {
+        if (timeoutMillis > 0) {
+            final ScheduledFuture<?> timeout = scheduler().schedule(
+                    () -> query.completeExceptionally(new TimeoutException("Discovery of " + serviceName + " timed out")),
+                    timeoutMillis, MILLISECONDS);
+            query.whenComplete((result, failure) -> timeout.cancel(false));
+        }
+        return query;
+    }
+
+    /**
+     * Performs a blocking query for the healthy nodes of a service.
+     * The agent holds the request until the service changes past the given index or the wait time elapses.
+     * @param serviceName the service to look up
+     * @param index the last seen Consul index, 0 for a plain query returning immediately, bound by the read timeout of the transport
+     * @param waitSeconds the maximum time the agent may hold the request
+     * @return the healthy nodes together with the new Consul index
+     * @throws IOException if the agent cannot be reached
+     */
+    public ServiceHealth discoverHealthyNodes(String serviceName, long index, int waitSeconds) throws IOException {
+        final String consulServiceHealthEndPoint;
+        final int readTimeout;
+        if (index > 0) {
+            consulServiceHealthEndPoint = this.getConsulHealthCheckApiUrl(serviceName) + "&index=" + index + "&wait=" + waitSeconds + "s";
+            // Consul adds up to wait/16 of jitter to the wait time
+            readTimeout = (int) SECONDS.toMillis(waitSeconds + waitSeconds / 16 + 5);
+        } else {
+            // callers wait for the first lookup, which must fail within the configured read timeout
+            consulServiceHealthEndPoint = this.getConsulHealthCheckApiUrl(serviceName);
+            readTimeout = 0;
         }
+        return this.transport.get(consulServiceHealthEndPoint, readTimeout,
+                (body, consulIndex) -> new ServiceHealth(serviceName, consulIndex, this.decoder.decode(body)));
+    }
 
-        return String.format(CONSUL_HEALTH_CHECK_API_ENDPOINT_TEMPLATE, this.consulAgentLocalWebServiceHost, Integer.valueOf(this.consulAgentLocalWebServicePort), serviceName, queryParam.toString());
+    private final String getConsulHealthCheckApiUrl(String serviceName) {
+        return this.consulHealthCheckApiEndpoint + serviceName + "?passing" + this.query.toQueryString();
     }
 }
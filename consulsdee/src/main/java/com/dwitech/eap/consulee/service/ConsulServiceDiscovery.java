@@ -15,20 +15,28 @@
  */
 package com.dwitech.eap.consulee.service;
 
+import com.dwitech.eap.consulee.ConsulConfiguration;
 import com.dwitech.eap.consulee.ConsulConfigurationException;
 import com.dwitech.eap.consulee.client.ConsulConfig;
 import com.dwitech.eap.consulee.client.ConsulServiceUnavailableException;
+import com.dwitech.eap.consulee.loadbalancer.OutlierDetector;
+import com.dwitech.eap.consulee.metrics.ConsulMetricsProvider;
 import com.dwitech.eap.consulee.model.DiscoveryResult;
-import com.fasterxml.jackson.dataformat.yaml.snakeyaml.Yaml;
-import com.fasterxml.jackson.dataformat.yaml.snakeyaml.error.YAMLException;
+import com.dwitech.eap.consulee.model.ServiceHealth;
+import org.reactivestreams.Publisher;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
-import static java.lang.System.getProperty;
-import static java.lang.Thread.currentThread;
-import static java.util.Optional.ofNullable;
+import static com.dwitech.eap.consulee.loadbalancer.LoadBalancers.LATENCY_AWARE;
+import static com.dwitech.eap.consulee.loadbalancer.LoadBalancers.ROUND_ROBIN;
+import static com.dwitech.eap.consulee.loadbalancer.LoadBalancers.forService;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.logging.Logger.getLogger;
 
 /**
@@ -36,65 +44,275 @@ import static java.util.logging.Logger.getLogger;
  */
 public class ConsulServiceDiscovery {
     private static final Logger LOGGER = getLogger("com.dwitech.eap.consulee");
+    static final String DEFAULT_WATCH_WAIT = "55";
+    private static final String DEFAULT_MAX_STALENESS = "300";
+    private static final String DEFAULT_BATCH_WINDOW = "2";
+    static final String DEFAULT_CONSUL_CONNECT_TIMEOUT = "2000";
+    static final String DEFAULT_CONSUL_READ_TIMEOUT = "10000";
+    private static final String DEFAULT_OUTLIER_CONSECUTIVE_FAILURES = "5";
+    private static final String DEFAULT_OUTLIER_LATENCY_THRESHOLD = "0";
+    private static final String DEFAULT_OUTLIER_EJECTION_TIME = "10000";
+    private static final String DEFAULT_OUTLIER_MAX_EJECTION_PERCENT = "50";
+    private static final String DEFAULT_CLIENT_POOL_SIZE = "20";
+    private static final String DEFAULT_CLIENT_KEEP_ALIVE = "true";
+    private static final String DEFAULT_CLIENT_CONNECT_TIMEOUT = "2000";
+    private static final String DEFAULT_CLIENT_READ_TIMEOUT = "30000";
+    private static final String DEFAULT_CLIENT_PREWARM_CONNECTIONS = "0";
 
     private final String applicationName;
+    private final String loadBalancer;
+    private final HealthQuery query;
+    private final String serviceRootKey;
+    private final ConsulConfiguration configuration;
+    private volatile Resolved resolved;
 
     public ConsulServiceDiscovery(final String applicationName) {
+        this(applicationName, null);
+    }
+
+    /**
+     * @param applicationName the name of the service
+     * @param loadBalancer the load balancing strategy, null or empty to use the configured one
+     */
+    public ConsulServiceDiscovery(final String applicationName, final String loadBalancer) {
+        this(ConsulConfiguration.current(), applicationName, loadBalancer);
+    }
+
+    /**
+     * @param configuration the configuration of the deployment
+     * @param applicationName the name of the service
+     * @param loadBalancer the load balancing strategy, null or empty to use the configured one
+     */
+    public ConsulServiceDiscovery(final ConsulConfiguration configuration, final String applicationName, final String loadBalancer) {
+        this(configuration, applicationName, loadBalancer, HealthQuery.ALL);
+    }
+
+    /**
+     * @param configuration the configuration of the deployment
+     * @param applicationName the name of the service
+     * @param loadBalancer the load balancing strategy, null or empty to use the configured one
+     * @param query the query options, each one left empty is taken from the configuration
+     */
+    public ConsulServiceDiscovery(final ConsulConfiguration configuration, final String applicationName, final String loadBalancer,
+                                  final HealthQuery query) {
+        this.configuration = configuration;
         this.applicationName = applicationName;
+        this.loadBalancer = loadBalancer;
+        this.query = query;
+        this.serviceRootKey = applicationName + "/serviceRoot";
     }
 
     public ConsulConfig discoverServiceConfiguration() {
-        try {
-            final HashSet consulServiceNames = new HashSet();
-            consulServiceNames.add(applicationName);
-
-            final ConsulConfig consulConfig = readConfiguration();
-
-            Set consulDiscoveryResults = (new ConsulService(consulConfig.getConsulHost(), consulConfig.getConsulPort())).discoverHealthyNodes(consulServiceNames);
-            Iterator ioException = consulDiscoveryResults.iterator();
-            while (ioException.hasNext()) {
-                DiscoveryResult discoveryResult = (DiscoveryResult)ioException.next();
-                consulConfig.setServiceHost(discoveryResult.getIp());
-                consulConfig.setServicePort(String.valueOf(discoveryResult.getPort()));
-                break;
+        final Resolved current = resolved();
+        return choose(current, discoverServiceHealth(current));
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #discoverServiceConfiguration()}, which never blocks the caller.
+     * @return the configuration with the chosen node, completed exceptionally with a
+     * {@link ConsulServiceUnavailableException} if the service is not available
+     * @throws ConsulConfigurationException if a mandatory property is missing
+     */
+    public CompletionStage<ConsulConfig> discoverServiceConfigurationAsync() {
+        final Resolved current = resolved();
+        return discoverServiceHealthAsync(current).thenApply(serviceHealth -> choose(current, serviceHealth));
+    }
+
+    private ConsulConfig choose(final Resolved current, final ServiceHealth serviceHealth) {
+        final ConsulConfig consulConfig = copy(current);
+        final OutlierDetector detector = OutlierDetector.forService(applicationName, current.consulConfig);
+        // a half-open node gets the call as its probe, whatever the balancer would choose
+        DiscoveryResult discoveryResult = detector.probe(serviceHealth.getNodeList());
+        if (discoveryResult == null) {
+            final List<DiscoveryResult> nodes = detector.available(serviceHealth.getNodeList());
+            if (!nodes.isEmpty()) {
+                discoveryResult = forService(applicationName, current.consulConfig.getLoadBalancer()).choose(nodes);
             }
-            return consulConfig;
+        }
+        if (discoveryResult != null) {
+            consulConfig.setServiceHost(discoveryResult.getIp());
+            consulConfig.setServicePort(String.valueOf(discoveryResult.getPort()));
+        }
+        return consulConfig;
+    }
+
+    /**
+     * Returns the last known good healthy nodes of the service.
+     * When the agent is unavailable, the nodes it last returned keep being served up to the
+     * configured maximum staleness ({@code consulMaxStaleness}, in seconds, 0 for no limit).
+     * @return the healthy nodes, with their age
+     * @throws ConsulServiceUnavailableException if the service was never discovered or its nodes are too stale
+     */
+    public ServiceHealth discoverServiceHealth() {
+        return discoverServiceHealth(resolved());
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #discoverServiceHealth()}, which never blocks the caller.
+     * @return the healthy nodes, completed exceptionally with a {@link ConsulServiceUnavailableException}
+     * if the service was never discovered or its nodes are too stale
+     * @throws ConsulConfigurationException if a mandatory property is missing
+     */
+    public CompletionStage<ServiceHealth> discoverServiceHealthAsync() {
+        return discoverServiceHealthAsync(resolved());
+    }
+
+    /**
+     * Publishes the healthy nodes of the service every time they change, starting with the current ones.
+     * @return a publisher of the snapshots of the healthy nodes
+     */
+    public Publisher<ServiceHealth> watchServiceHealth() {
+        return new ServiceHealthPublisher(this, resolved().consulService, applicationName);
+    }
+
+    /**
+     * Registers a listener notified of the nodes added, removed or modified in the service, on the thread of its watcher.
+     * @param listener the listener
+     * @throws ConsulConfigurationException if a mandatory property is missing
+     */
+    public void addTopologyListener(final Consumer<ServiceTopologyChanged> listener) {
+        ServiceHealthCache.getInstance().addTopologyListener(resolved().consulService, applicationName, listener);
+    }
+
+    /**
+     * @param listener the listener to remove
+     * @throws ConsulConfigurationException if a mandatory property is missing
+     */
+    public void removeTopologyListener(final Consumer<ServiceTopologyChanged> listener) {
+        ServiceHealthCache.getInstance().removeTopologyListener(resolved().consulService, applicationName, listener);
+    }
+
+    private ServiceHealth discoverServiceHealth(final Resolved current) {
+        final long start = System.nanoTime();
+        final ServiceHealth serviceHealth;
+        try {
+            serviceHealth = ServiceHealthCache.getInstance()
+                    .getServiceHealth(current.consulService, applicationName, current.watchWait, current.batchWindow);
         } catch (IOException ioExc) {
             throw new ConsulServiceUnavailableException(ioExc);
+        } finally {
+            ConsulMetricsProvider.get().lookupLatency(applicationName, System.nanoTime() - start);
         }
+        return checkStaleness(current, serviceHealth);
     }
 
-    private ConsulConfig readConfiguration() throws ConsulConfigurationException {
-        final ConsulConfig consulConfiguration = new ConsulConfig();
-        Map<String, Object> consulConfig = Collections.EMPTY_MAP;
-        try {
-            final Yaml yaml = new Yaml();
-            final Map<String, Object> props = (Map<String, Object>) yaml.load(currentThread().getContextClassLoader().getResourceAsStream("/consul.yml"));
-            consulConfig = (Map<String, Object>) props.get("consul");
-        } catch (YAMLException yExc) {
-            LOGGER.config(() -> "No configuration file. Using env properties.");
+    private CompletableFuture<ServiceHealth> discoverServiceHealthAsync(final Resolved current) {
+        final long start = System.nanoTime();
+        return ServiceHealthCache.getInstance()
+                .getServiceHealthAsync(current.consulService, applicationName, current.watchWait, current.batchWindow)
+                .handle((serviceHealth, failure) -> {
+                    ConsulMetricsProvider.get().lookupLatency(applicationName, System.nanoTime() - start);
+                    if (failure != null) {
+                        throw new ConsulServiceUnavailableException(failure instanceof CompletionException ? failure.getCause() : failure);
+                    }
+                    return checkStaleness(current, serviceHealth);
+                });
+    }
+
+    private static ConsulService newConsulService(final ConsulConfig consulConfig) {
+        final ConsulTransport transport = new UrlConnectionTransport(
+                Integer.parseInt(consulConfig.getConsulConnectTimeout()), Integer.parseInt(consulConfig.getConsulReadTimeout()));
+        final HealthQuery healthQuery = HealthQuery.of(consulConfig.getConsulTags(), consulConfig.getConsulDatacenter(),
+                consulConfig.getConsulNear(), consulConfig.getConsulFilter());
+        return new ConsulService(consulConfig.getConsulHost(), consulConfig.getConsulPort(), healthQuery,
+                transport, HealthResponseDecoder.create(consulConfig.getHealthDecoder()));
+    }
+
+    private ServiceHealth checkStaleness(final Resolved current, final ServiceHealth serviceHealth) {
+        final long maxStaleness = current.maxStaleness;
+        final long age = serviceHealth.getAge();
+        if (maxStaleness > 0 && age > maxStaleness) {
+            throw new ConsulServiceUnavailableException("The nodes of " + applicationName + " were last confirmed " + age + "ms ago");
+        }
+        return serviceHealth;
+    }
+
+    /**
+     * Returns the configuration of the discovery, resolved from the configuration of the deployment on first use.
+     * @return a copy of the configuration, with the root path of the service currently found in the KV store
+     * @throws ConsulConfigurationException if a mandatory property is missing
+     */
+    public ConsulConfig readConfiguration() throws ConsulConfigurationException {
+        return copy(resolved());
+    }
+
+    private ConsulConfig copy(final Resolved current) {
+        final ConsulConfig consulConfig = new ConsulConfig(current.consulConfig);
+        // the KV store takes precedence, so that the root path can be changed without redeploying
+        consulConfig.setServiceRoot(ConsulKeyValueSource.getInstance().get(serviceRootKey, current.consulConfig.getServiceRoot()));
+        return consulConfig;
+    }
+
+    private Resolved resolved() {
+        Resolved current = resolved;
+        if (current == null) {
+            current = new Resolved(resolve());
+            resolved = current;
         }
+        return current;
+    }
+
+    private ConsulConfig resolve() throws ConsulConfigurationException {
+        final ConsulConfig consulConfiguration = new ConsulConfig();
 
-        consulConfiguration.setConsulHost(readProperty("consulHost", consulConfig));
-        consulConfiguration.setConsulPort(readProperty("consulPort", consulConfig));
+        consulConfiguration.setConsulHost(configuration.require("consulHost", applicationName));
+        consulConfiguration.setConsulPort(configuration.require("consulPort", applicationName));
+        consulConfiguration.setConsulConnectTimeout(configuration.get("consulConnectTimeout", applicationName, DEFAULT_CONSUL_CONNECT_TIMEOUT));
+        consulConfiguration.setConsulReadTimeout(configuration.get("consulReadTimeout", applicationName, DEFAULT_CONSUL_READ_TIMEOUT));
+        consulConfiguration.setConsulWatchWait(configuration.get("consulWatchWait", applicationName, DEFAULT_WATCH_WAIT));
+        consulConfiguration.setConsulBatchWindow(configuration.get("consulBatchWindow", applicationName, DEFAULT_BATCH_WINDOW));
+        consulConfiguration.setConsulMaxStaleness(configuration.get("consulMaxStaleness", applicationName, DEFAULT_MAX_STALENESS));
+        consulConfiguration.setConsulTags(query.getTags().isEmpty()
+                ? configuration.get("consulTags", applicationName)
+                : String.join(",", query.getTags()));
+        consulConfiguration.setConsulDatacenter(orElse(query.getDatacenter(), configuration.get("consulDatacenter", applicationName)));
+        consulConfiguration.setLoadBalancer(loadBalancer == null || loadBalancer.isEmpty()
+                ? configuration.get("loadBalancer", applicationName, ROUND_ROBIN)
+                : loadBalancer);
+        // the latency aware balancer relies on the nodes being sorted by distance
+        consulConfiguration.setConsulNear(orElse(query.getNear(), configuration.get("consulNear", applicationName,
+                LATENCY_AWARE.equals(consulConfiguration.getLoadBalancer()) ? HealthQuery.NEAR_AGENT : null)));
+        consulConfiguration.setConsulFilter(orElse(query.getFilter(), configuration.get("consulFilter", applicationName)));
+        consulConfiguration.setHealthDecoder(configuration.get("healthDecoder", applicationName, HealthResponseDecoder.PROJECTION));
+        consulConfiguration.setOutlierConsecutiveFailures(
+                configuration.get("outlierConsecutiveFailures", applicationName, DEFAULT_OUTLIER_CONSECUTIVE_FAILURES));
+        consulConfiguration.setOutlierLatencyThreshold(configuration.get("outlierLatencyThreshold", applicationName, DEFAULT_OUTLIER_LATENCY_THRESHOLD));
+        consulConfiguration.setOutlierEjectionTime(configuration.get("outlierEjectionTime", applicationName, DEFAULT_OUTLIER_EJECTION_TIME));
+        consulConfiguration.setOutlierMaxEjectionPercent(
+                configuration.get("outlierMaxEjectionPercent", applicationName, DEFAULT_OUTLIER_MAX_EJECTION_PERCENT));
+        consulConfiguration.setClientPoolSize(configuration.get("clientPoolSize", applicationName, DEFAULT_CLIENT_POOL_SIZE));
+        consulConfiguration.setClientKeepAlive(configuration.get("clientKeepAlive", applicationName, DEFAULT_CLIENT_KEEP_ALIVE));
+        consulConfiguration.setClientConnectTimeout(configuration.get("clientConnectTimeout", applicationName, DEFAULT_CLIENT_CONNECT_TIMEOUT));
+        consulConfiguration.setClientReadTimeout(configuration.get("clientReadTimeout", applicationName, DEFAULT_CLIENT_READ_TIMEOUT));
+        consulConfiguration.setClientPrewarmConnections(
+                configuration.get("clientPrewarmConnections", applicationName, DEFAULT_CLIENT_PREWARM_CONNECTIONS));
+        consulConfiguration.setServiceRoot(configuration.get("serviceRoot", applicationName));
 
         LOGGER.config(() -> "application config for consul: " + consulConfiguration.toJSON());
 
         return consulConfiguration;
     }
 
-    private String readProperty(final String key, Map<String, Object> consulConfig) {
-        String property = ofNullable(getProperty(key))
-                .orElseGet(() -> {
-                    String envProp = ofNullable(System.getenv(applicationName + "." + key))
-                            .orElseGet(() -> {
-                                String confProp = ofNullable(consulConfig.get(key))
-                                        .orElseThrow(() -> new ConsulConfigurationException(key + " must be configured either in consul.yml or as env parameter"))
-                                        .toString();
-                                return confProp;
-                            });
-                    return envProp;
-                });
-        return property;
+    /**
+     * The configuration of the discovery, with the values needed on the request path parsed once.
+     */
+    private static final class Resolved {
+        private final ConsulConfig consulConfig;
+        private final ConsulService consulService;
+        private final int watchWait;
+        private final long batchWindow;
+        private final long maxStaleness;
+
+        private Resolved(final ConsulConfig consulConfig) {
+            this.consulConfig = consulConfig;
+            this.consulService = newConsulService(consulConfig);
+            this.watchWait = Integer.parseInt(consulConfig.getConsulWatchWait());
+            this.batchWindow = Long.parseLong(consulConfig.getConsulBatchWindow());
+            this.maxStaleness = SECONDS.toMillis(Long.parseLong(consulConfig.getConsulMaxStaleness()));
+        }
+    }
+
+    private static String orElse(final String value, final String defaultValue) {
+        return value == null ? defaultValue : value;
     }
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * HTTP transport used to query the Consul agent.
+ * Response bodies are handed over as streams so that they can be decoded without buffering them.
+ * @since 1.0.0
+ */
+public interface ConsulTransport {
+    /**
+     * Performs a GET request.
+     * @param url the URL to read
+     * @param readTimeout the read timeout in milliseconds, 0 to use the transport default
+     * @param handler decodes the response body
+     * @param <T> the decoded type
+     * @return the decoded response
+     * @throws java.io.FileNotFoundException if the agent answers with 404
+     * @throws IOException if the request fails or the agent does not answer with 200
+     */
+    <T> T get(String url, int readTimeout, ResponseHandler<T> handler) throws IOException;
+
+    /**
+     * Decodes a response of the Consul agent.
+     * @param <T> the decoded type
+     */
+    @FunctionalInterface
+    interface ResponseHandler<T> {
+        /**
+         * @param body the response body, closed by the transport
+         * @param consulIndex the X-Consul-Index header, 0 if absent
+         * @return the decoded response
+         * @throws IOException if the body cannot be read
+         */
+        T handle(InputStream body, long consulIndex) throws IOException;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * Executors shared by the asynchronous discovery queries.
+ * Queries run on virtual threads when the JVM provides them, and on a bounded pool of daemon threads otherwise.
+ * @since 1.0.0
+ */
+final class DiscoveryExecutors {
+    private static final Logger LOGGER = getLogger("com.dwitech.eap.consulee");
+    private static final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final ExecutorService QUERY_EXECUTOR = newQueryExecutor();
+    private static final ScheduledExecutorService SCHEDULER = newScheduler();
+
+    private DiscoveryExecutors() {}
+
+    static ExecutorService queryExecutor() {
+        return QUERY_EXECUTOR;
+    }
+
+    static ScheduledExecutorService scheduler() {
+        return SCHEDULER;
+    }
+
+    private static ExecutorService newQueryExecutor() {
+        try {
+            final ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOGGER.config("Discovery queries run on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException roExc) {
+            return newFixedThreadPool(POOL_SIZE, new DaemonThreadFactory("consulee-discovery-"));
+        }
+    }
+
+    private static ScheduledExecutorService newScheduler() {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("consulee-scheduler-"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * The options of a health query that Consul applies server-side, before the response is sent:
+ * the tags every node must have, the datacenter, the sort order and a filter expression.
+ * @since 1.0.0
+ */
+public final class HealthQuery {
+    /**
+     * Sorts the nodes by their estimated round trip time from the agent.
+     */
+    public static final String NEAR_AGENT = "_agent";
+    public static final HealthQuery ALL = new HealthQuery(emptyList(), null, null, null);
+
+    private final List<String> tags;
+    private final String datacenter;
+    private final String near;
+    private final String filter;
+    private final String queryString;
+
+    /**
+     * @param tags the tags every node must have, may be empty
+     * @param datacenter the datacenter to query, null or empty for the one of the agent
+     * @param near the node to sort the nodes by distance from, {@value #NEAR_AGENT} for the agent, null or empty for no sorting
+     * @param filter a Consul filter expression (Consul 1.5+), null or empty for no filter
+     */
+    public HealthQuery(final List<String> tags, final String datacenter, final String near, final String filter) {
+        final List<String> tagList = new ArrayList<>();
+        for (String tag : tags) {
+            if (emptyToNull(tag) != null) {
+                tagList.add(tag.trim());
+            }
+        }
+        this.tags = unmodifiableList(tagList);
+        this.datacenter = emptyToNull(datacenter);
+        this.near = emptyToNull(near);
+        this.filter = emptyToNull(filter);
+        this.queryString = buildQueryString();
+    }
+
+    /**
+     * @param tags the comma separated tags every node must have, may be null
+     * @param datacenter the datacenter to query, may be null
+     * @param near the node to sort the nodes by distance from, may be null
+     * @param filter a Consul filter expression, may be null
+     * @return the query
+     */
+    public static HealthQuery of(final String tags, final String datacenter, final String near, final String filter) {
+        final List<String> tagList = tags == null || tags.trim().isEmpty() ? emptyList() : asList(tags.trim().split("\\s*,\\s*"));
+        return new HealthQuery(tagList, datacenter, near, filter);
+    }
+
+    public List<String> getTags() {
+        return this.tags;
+    }
+    public String getDatacenter() {
+        return this.datacenter;
+    }
+    public String getNear() {
+        return this.near;
+    }
+    public String getFilter() {
+        return this.filter;
+    }
+
+    /**
+     * @return true if the query returns all the healthy nodes of the local datacenter, unsorted
+     */
+    public boolean isEmpty() {
+        return this.queryString.isEmpty();
+    }
+
+    /**
+     * @return the encoded query parameters, each preceded by {@code &}, empty for an empty query
+     */
+    public String toQueryString() {
+        return this.queryString;
+    }
+
+    private String buildQueryString() {
+        final StringBuilder query = new StringBuilder();
+        for (String tag : this.tags) {
+            append(query, "tag", tag);
+        }
+        append(query, "dc", this.datacenter);
+        append(query, "near", this.near);
+        append(query, "filter", this.filter);
+        return query.toString();
+    }
+
+    private static void append(final StringBuilder query, final String name, final String value) {
+        if (value != null) {
+            try {
+                query.append('&').append(name).append('=').append(URLEncoder.encode(value, "UTF-8"));
+            } catch (UnsupportedEncodingException ueExc) {
+                throw new IllegalStateException(ueExc);
+            }
+        }
+    }
+
+    private static String emptyToNull(final String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    @Override
+    public String toString() {
+        return this.queryString;
+    }
+}
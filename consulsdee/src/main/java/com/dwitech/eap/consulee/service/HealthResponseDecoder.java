@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import com.dwitech.eap.consulee.ConsulConfigurationException;
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+/**
+ * Decodes the response of the Consul health API ({@code /v1/health/service/:service}) into discovery results.
+ * @since 1.0.0
+ */
+public interface HealthResponseDecoder {
+    String PROJECTION = "projection";
+    String MODEL = "model";
+
+    /**
+     * @param body the JSON array returned by the agent
+     * @return the nodes found in the response
+     * @throws IOException if the body cannot be read or is malformed
+     */
+    Set<DiscoveryResult> decode(InputStream body) throws IOException;
+
+    /**
+     * Creates a decoder.
+     * @param name {@value #PROJECTION} for the streaming projection decoder, {@value #MODEL} for the full-model one
+     * @return the decoder
+     * @throws ConsulConfigurationException if the name is unknown
+     */
+    static HealthResponseDecoder create(final String name) {
+        switch (name) {
+            case PROJECTION:
+                return new ProjectionHealthResponseDecoder();
+            case MODEL:
+                return new ModelHealthResponseDecoder();
+            default:
+                throw new ConsulConfigurationException("Unknown health response decoder " + name);
+        }
+    }
+}
\ No newline at end of file
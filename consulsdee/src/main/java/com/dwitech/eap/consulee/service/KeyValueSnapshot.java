@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Immutable snapshot of the key/values found under a prefix of the Consul KV store.
+ * Keys are relative to the prefix, and the snapshot is versioned by the Consul index it was read at.
+ * @since 1.0.0
+ */
+public final class KeyValueSnapshot {
+    /** The snapshot before the KV store was first read. */
+    public static final KeyValueSnapshot EMPTY = new KeyValueSnapshot(0L, Collections.emptyMap());
+
+    private final long index;
+    private final Map<String, String> values;
+
+    /**
+     * @param index the Consul index the values were read at
+     * @param values the values per key relative to the prefix, owned by the snapshot from now on
+     */
+    public KeyValueSnapshot(final long index, final Map<String, String> values) {
+        this.index = index;
+        this.values = unmodifiableMap(values);
+    }
+
+    /**
+     * @param key the key, relative to the prefix
+     * @return the value, empty for a key without value, null if the key does not exist
+     */
+    public String get(final String key) {
+        return values.get(key);
+    }
+
+    /**
+     * @param key the key, relative to the prefix
+     * @param defaultValue the value returned when the key does not exist
+     * @return the value, or the default value
+     */
+    public String get(final String key, final String defaultValue) {
+        final String value = values.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public Map<String, String> getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * Event fired when the key/values watched in the Consul KV store change.
+ * @since 1.0.0
+ */
+public final class KeyValuesChanged {
+    private final KeyValueSnapshot previous;
+    private final KeyValueSnapshot current;
+    private final Set<String> changedKeys;
+
+    /**
+     * @param previous the snapshot before the change
+     * @param current the snapshot after the change
+     */
+    public KeyValuesChanged(final KeyValueSnapshot previous, final KeyValueSnapshot current) {
+        this.previous = previous;
+        this.current = current;
+        final Set<String> keys = new HashSet<>(previous.getValues().keySet());
+        keys.addAll(current.getValues().keySet());
+        keys.removeIf(key -> Objects.equals(previous.get(key), current.get(key)));
+        this.changedKeys = unmodifiableSet(keys);
+    }
+
+    public KeyValueSnapshot getPrevious() {
+        return previous;
+    }
+
+    public KeyValueSnapshot getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return the keys added, removed or whose value changed
+     */
+    public Set<String> getChangedKeys() {
+        return changedKeys;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+import com.dwitech.eap.consulee.model.health.HealthCheck;
+import com.dwitech.eap.consulee.model.health.Weights;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Decodes the health response into the full {@link HealthCheck} model before extracting the nodes.
+ * @since 1.0.0
+ */
+public class ModelHealthResponseDecoder implements HealthResponseDecoder {
+    private static final Gson GSON = new Gson();
+
+    @Override
+    public Set<DiscoveryResult> decode(final InputStream body) throws IOException {
+        // keeps the order of the response, which is meaningful for near queries
+        final Set<DiscoveryResult> result = new LinkedHashSet<>();
+        final HealthCheck[] healthChecks;
+        try {
+            healthChecks = GSON.fromJson(new JsonReader(new BufferedReader(new InputStreamReader(body, UTF_8))), HealthCheck[].class);
+        } catch (JsonParseException jpExc) {
+            throw new IOException("Malformed health response", jpExc);
+        }
+        Arrays.stream(healthChecks).forEach((healthCheck) -> {
+            String ip = healthCheck.getService().getAddress();
+            int port = healthCheck.getService().getPort().intValue();
+            if(ip == null || ip.isEmpty()) {
+                ip = healthCheck.getNode().getAddress();
+            }
+            Weights weights = healthCheck.getService().getWeights();
+            int weight = weights == null || weights.getPassing() == null ? 1 : weights.getPassing().intValue();
+
+            List<String> tags = healthCheck.getService().getTags();
+            Map<String, String> meta = healthCheck.getService().getMeta();
+            Map<String, String> nodeMeta = healthCheck.getNode().getMeta();
+
+            result.add(new DiscoveryResult(ip, port, weight, healthCheck.getNode().getNode(),
+                    tags == null ? emptyList() : unmodifiableList(tags),
+                    meta == null ? emptyMap() : unmodifiableMap(meta),
+                    nodeMeta == null ? emptyMap() : unmodifiableMap(nodeMeta)));
+        });
+        return result;
+    }
+}
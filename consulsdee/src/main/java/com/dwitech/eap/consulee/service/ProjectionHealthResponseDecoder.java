@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Streams the health response and only materializes the fields discovery needs:
+ * {@code Node.Node}, {@code Node.Address}, {@code Node.Meta}, {@code Service.Address}, {@code Service.Port},
+ * {@code Service.Weights.Passing}, {@code Service.Tags} and {@code Service.Meta}.
+ * Everything else, including the checks with their output and notes, is skipped without being decoded.
+ * @since 1.0.0
+ */
+public class ProjectionHealthResponseDecoder implements HealthResponseDecoder {
+
+    @Override
+    public Set<DiscoveryResult> decode(final InputStream body) throws IOException {
+        // keeps the order of the response, which is meaningful for near queries
+        final Set<DiscoveryResult> result = new LinkedHashSet<>();
+        // the body is owned, and closed, by the transport
+        final JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(body, UTF_8)));
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                result.add(readEntry(reader));
+            }
+            reader.endArray();
+        } catch (IllegalStateException | NumberFormatException exc) {
+            throw new IOException("Malformed health response", exc);
+        }
+        return result;
+    }
+
+    private static DiscoveryResult readEntry(final JsonReader reader) throws IOException {
+        final Entry entry = new Entry();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "Node":
+                    readNode(reader, entry);
+                    break;
+                case "Service":
+                    readService(reader, entry);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        final String ip = entry.serviceAddress == null || entry.serviceAddress.isEmpty() ? entry.nodeAddress : entry.serviceAddress;
+        return new DiscoveryResult(ip, entry.port, entry.weight, entry.node, entry.tags, entry.meta, entry.nodeMeta);
+    }
+
+    private static void readNode(final JsonReader reader, final Entry entry) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "Node":
+                    entry.node = nextString(reader);
+                    break;
+                case "Address":
+                    entry.nodeAddress = nextString(reader);
+                    break;
+                case "Meta":
+                    entry.nodeMeta = readMeta(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readService(final JsonReader reader, final Entry entry) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "Address":
+                    entry.serviceAddress = nextString(reader);
+                    break;
+                case "Port":
+                    entry.port = reader.nextInt();
+                    break;
+                case "Weights":
+                    readWeights(reader, entry);
+                    break;
+                case "Tags":
+                    entry.tags = readTags(reader);
+                    break;
+                case "Meta":
+                    entry.meta = readMeta(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readWeights(final JsonReader reader, final Entry entry) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("Passing".equals(reader.nextName())) {
+                entry.weight = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static List<String> readTags(final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return emptyList();
+        }
+        final List<String> tags = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            tags.add(reader.nextString());
+        }
+        reader.endArray();
+        return tags.isEmpty() ? emptyList() : unmodifiableList(tags);
+    }
+
+    private static Map<String, String> readMeta(final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return emptyMap();
+        }
+        final Map<String, String> meta = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            meta.put(reader.nextName(), nextString(reader));
+        }
+        reader.endObject();
+        return meta.isEmpty() ? emptyMap() : unmodifiableMap(meta);
+    }
+
+    private static String nextString(final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static final class Entry {
+        private String node;
+        private String nodeAddress;
+        private Map<String, String> nodeMeta = emptyMap();
+        private List<String> tags = emptyList();
+        private Map<String, String> meta = emptyMap();
+        private String serviceAddress;
+        private int port;
+        private int weight = 1;
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import com.dwitech.eap.consulee.metrics.ConsulMetrics;
+import com.dwitech.eap.consulee.metrics.ConsulMetricsProvider;
+import com.dwitech.eap.consulee.model.ServiceHealth;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.dwitech.eap.consulee.service.DiscoveryExecutors.queryExecutor;
+import static com.dwitech.eap.consulee.service.DiscoveryExecutors.scheduler;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * In-memory cache of the healthy nodes per service.
+ * Each cached service is kept fresh by a background watcher issuing Consul blocking queries,
+ * so that lookups are plain reads of the last snapshot and the agent sees one long-poll per service.
+ * When the agent fails, the last known good snapshot keeps being served while the watcher retries
+ * with an exponential backoff; its age tells how long ago the agent last confirmed it.
+ * <p>
+ * Concurrent lookups of a service that is not cached yet share a single fetch. The first fetches of
+ * different services requested within the same batch window are sent to the agent together.
+ * Listeners are notified of every new snapshot of the services they listen to whose nodes changed,
+ * and topology listeners of the nodes added, removed or modified since the previous snapshot.
+ * A service looked up with different {@link HealthQuery query options} is cached, watched and listened to once per query.
+ * <p>
+ * The snapshots can be persisted to a local file. On the next start, a service found in the file is served from
+ * it at once, with the age it had when written, while its watcher reconciles it with the agent in the background.
+ * @since 1.0.0
+ */
+public final class ServiceHealthCache {
+    private static final Logger LOGGER = getLogger("com.dwitech.eap.consulee");
+    private static final long RETRY_DELAY_MILLIS = 1000L;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000L;
+
+    private static final ServiceHealthCache INSTANCE = new ServiceHealthCache();
+
+    private final ConcurrentMap<String, ServiceWatcher> watchers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<Consumer<ServiceHealth>>> listeners = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<Consumer<ServiceTopologyChanged>>> topologyListeners = new ConcurrentHashMap<>();
+    private final Set<Consumer<ServiceTopologyChanged>> globalTopologyListeners = new CopyOnWriteArraySet<>();
+    private final ExecutorService executor = newCachedThreadPool(new DaemonThreadFactory("consulee-watcher-"));
+    private final Queue<ServiceWatcher> pendingFetches = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ConcurrentMap<String, ServiceHealth> preloaded = new ConcurrentHashMap<>();
+    private final AtomicLong changes = new AtomicLong();
+    private long persistedChanges = -1L;
+    private Path snapshotFile;
+    private ScheduledFuture<?> snapshotWriter;
+
+    private ServiceHealthCache() {}
+
+    public static ServiceHealthCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached healthy nodes of a service.
+     * The first lookup of a service waits for it to be fetched and starts watching it.
+     * @param consulService the service used to query the agent
+     * @param serviceName the service to look up
+     * @param waitSeconds the maximum time a blocking query may be held by the agent
+     * @param batchWindowMillis how long a first fetch waits for the first fetches of other services, 0 to send it at once
+     * @return the last known good healthy nodes
+     * @throws IOException if the first lookup of the service fails
+     */
+    public ServiceHealth getServiceHealth(final ConsulService consulService, final String serviceName, final int waitSeconds,
+                                          final long batchWindowMillis) throws IOException {
+        return watcher(consulService, serviceName, waitSeconds).get(batchWindowMillis);
+    }
+
+    /**
+     * Returns the cached healthy nodes of a service without blocking the caller.
+     * A cached service is returned as an already completed stage; the first lookup of a service
+     * completes once it is fetched, on the thread that fetched it.
+     * @param consulService the service used to query the agent
+     * @param serviceName the service to look up
+     * @param waitSeconds the maximum time a blocking query may be held by the agent
+     * @param batchWindowMillis how long a first fetch waits for the first fetches of other services, 0 to send it at once
+     * @return the last known good healthy nodes, completed exceptionally with an {@link IOException} if the first lookup fails
+     */
+    public CompletableFuture<ServiceHealth> getServiceHealthAsync(final ConsulService consulService, final String serviceName,
+                                                                  final int waitSeconds, final long batchWindowMillis) {
+        return watcher(consulService, serviceName, waitSeconds).getAsync(batchWindowMillis);
+    }
+
+    /**
+     * Registers a listener notified of every new snapshot of a service whose nodes changed, on the thread of its watcher.
+     * Registering does not start watching the service, a lookup does.
+     * @param consulService the service used to query the agent, for its query options
+     * @param serviceName the service to listen to
+     * @param listener the listener
+     */
+    public void addListener(final ConsulService consulService, final String serviceName, final Consumer<ServiceHealth> listener) {
+        listeners.computeIfAbsent(key(consulService, serviceName), key -> new CopyOnWriteArraySet<>()).add(listener);
+    }
+
+    /**
+     * @param consulService the service used to query the agent, for its query options
+     * @param serviceName the service listened to
+     * @param listener the listener to remove
+     */
+    public void removeListener(final ConsulService consulService, final String serviceName, final Consumer<ServiceHealth> listener) {
+        final Set<Consumer<ServiceHealth>> serviceListeners = listeners.get(key(consulService, serviceName));
+        if (serviceListeners != null) {
+            serviceListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Registers a listener notified of the nodes added, removed or modified in a service, on the thread of its watcher.
+     * The first snapshot of the service is notified as all its nodes being added.
+     * Registering does not start watching the service, a lookup does.
+     * @param consulService the service used to query the agent, for its query options
+     * @param serviceName the service to listen to
+     * @param listener the listener
+     */
+    public void addTopologyListener(final ConsulService consulService, final String serviceName, final Consumer<ServiceTopologyChanged> listener) {
+        topologyListeners.computeIfAbsent(key(consulService, serviceName), key -> new CopyOnWriteArraySet<>()).add(listener);
+    }
+
+    /**
+     * @param consulService the service used to query the agent, for its query options
+     * @param serviceName the service listened to
+     * @param listener the listener to remove
+     */
+    public void removeTopologyListener(final ConsulService consulService, final String serviceName, final Consumer<ServiceTopologyChanged> listener) {
+        final Set<Consumer<ServiceTopologyChanged>> serviceListeners = topologyListeners.get(key(consulService, serviceName));
+        if (serviceListeners != null) {
+            serviceListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Registers a listener notified of the nodes added, removed or modified in every watched service.
+     * @param listener the listener
+     */
+    public void addTopologyListener(final Consumer<ServiceTopologyChanged> listener) {
+        globalTopologyListeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeTopologyListener(final Consumer<ServiceTopologyChanged> listener) {
+        globalTopologyListeners.remove(listener);
+    }
+
+    /**
+     * Warms the cache from a snapshot file, then writes the snapshots to it periodically.
+     * A missing or corrupted file is ignored. Does nothing if the cache is already persisted.
+     * @param file the snapshot file
+     * @param intervalSeconds the time between two writes, only done if a snapshot changed
+     */
+    public synchronized void persistTo(final Path file, final long intervalSeconds) {
+        if (snapshotFile != null) {
+            return;
+        }
+        try {
+            final Map<String, ServiceHealth> snapshots = ServiceHealthSnapshot.read(file);
+            snapshots.forEach((key, health) -> {
+                if (!watchers.containsKey(key)) {
+                    preloaded.put(key, health);
+                }
+            });
+            LOGGER.info(() -> "warmed the discovery cache with " + snapshots.size() + " services from " + file);
+        } catch (IOException ioExc) {
+            LOGGER.warning(() -> "Could not warm the discovery cache from " + file + ": " + ioExc.getMessage());
+        }
+        snapshotFile = file;
+        snapshotWriter = scheduler().scheduleWithFixedDelay(this::writeSnapshot, intervalSeconds, intervalSeconds, SECONDS);
+    }
+
+    /**
+     * Stops all the watchers and empties the cache, after writing a last snapshot if the cache is persisted.
+     */
+    public synchronized void shutdown() {
+        if (snapshotFile != null) {
+            snapshotWriter.cancel(false);
+            writeSnapshot();
+            snapshotFile = null;
+        }
+        watchers.values().forEach(ServiceWatcher::stop);
+        watchers.clear();
+        preloaded.clear();
+    }
+
+    private synchronized void writeSnapshot() {
+        final long version = changes.get();
+        if (snapshotFile == null || version == persistedChanges) {
+            return;
+        }
+        final Map<String, ServiceHealth> snapshots = new HashMap<>(preloaded);
+        watchers.forEach((key, watcher) -> {
+            final ServiceHealth health = watcher.current;
+            if (health != null) {
+                snapshots.put(key, health);
+            }
+        });
+        try {
+            ServiceHealthSnapshot.write(snapshotFile, snapshots);
+            persistedChanges = version;
+        } catch (IOException ioExc) {
+            LOGGER.warning(() -> "Could not write the discovery snapshot to " + snapshotFile + ": " + ioExc.getMessage());
+        }
+    }
+
+    private ServiceWatcher watcher(final ConsulService consulService, final String serviceName, final int waitSeconds) {
+        final String key = key(consulService, serviceName);
+        final ServiceWatcher watcher = watchers.get(key);
+        if (watcher != null) {
+            return watcher;
+        }
+        return watchers.computeIfAbsent(key, k -> {
+            final ServiceWatcher newWatcher = new ServiceWatcher(consulService, serviceName, k, waitSeconds);
+            final ServiceHealth snapshot = preloaded.remove(k);
+            if (snapshot != null) {
+                // the index 0 makes the first query of the watcher return at once
+                newWatcher.current = new ServiceHealth(serviceName, 0L, snapshot.getNodes(), snapshot.getTimestamp());
+                executor.execute(newWatcher);
+            }
+            return newWatcher;
+        });
+    }
+
+    private static String key(final ConsulService consulService, final String serviceName) {
+        return consulService.cacheKey(serviceName);
+    }
+
+    private void publish(final String key, final ServiceHealth previous, final ServiceHealth health) {
+        final Set<Consumer<ServiceHealth>> serviceListeners = listeners.get(key);
+        if (serviceListeners != null) {
+            for (final Consumer<ServiceHealth> listener : serviceListeners) {
+                try {
+                    listener.accept(health);
+                } catch (RuntimeException rExc) {
+                    LOGGER.log(Level.WARNING, "listener of " + health.getServiceName() + " failed", rExc);
+                }
+            }
+        }
+        final Set<Consumer<ServiceTopologyChanged>> serviceTopologyListeners = topologyListeners.get(key);
+        if ((serviceTopologyListeners == null || serviceTopologyListeners.isEmpty()) && globalTopologyListeners.isEmpty()) {
+            return;
+        }
+        // the delta is only computed when someone listens to it
+        final ServiceTopologyChanged topologyChanged = new ServiceTopologyChanged(previous, health);
+        if (topologyChanged.isEmpty()) {
+            return;
+        }
+        if (serviceTopologyListeners != null) {
+            notifyTopologyListeners(serviceTopologyListeners, topologyChanged);
+        }
+        notifyTopologyListeners(globalTopologyListeners, topologyChanged);
+    }
+
+    private static void notifyTopologyListeners(final Set<Consumer<ServiceTopologyChanged>> topologyListeners,
+                                                final ServiceTopologyChanged topologyChanged) {
+        for (final Consumer<ServiceTopologyChanged> listener : topologyListeners) {
+            try {
+                listener.accept(topologyChanged);
+            } catch (RuntimeException rExc) {
+                LOGGER.log(Level.WARNING, "topology listener of " + topologyChanged.getServiceName() + " failed", rExc);
+            }
+        }
+    }
+
+    private void requestFetch(final ServiceWatcher watcher, final long batchWindowMillis) {
+        pendingFetches.add(watcher);
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (batchWindowMillis > 0) {
+                scheduler().schedule(this::flushFetches, batchWindowMillis, MILLISECONDS);
+            } else {
+                flushFetches();
+            }
+        }
+    }
+
+    private void flushFetches() {
+        flushScheduled.set(false);
+        ServiceWatcher watcher;
+        while ((watcher = pendingFetches.poll()) != null) {
+            queryExecutor().execute(watcher::fetch);
+        }
+    }
+
+    private final class ServiceWatcher implements Runnable {
+        private final ConsulService consulService;
+        private final String serviceName;
+        private final String key;
+        private final int waitSeconds;
+        private final AtomicReference<CompletableFuture<ServiceHealth>> inFlight = new AtomicReference<>();
+        private volatile ServiceHealth current;
+        private volatile boolean running = true;
+
+        private ServiceWatcher(final ConsulService consulService, final String serviceName, final String key, final int waitSeconds) {
+            this.consulService = consulService;
+            this.serviceName = serviceName;
+            this.key = key;
+            this.waitSeconds = waitSeconds;
+        }
+
+        private ServiceHealth get(final long batchWindowMillis) throws IOException {
+            final ServiceHealth health = current;
+            if (health != null) {
+                ConsulMetricsProvider.get().cacheHit(serviceName);
+                return health;
+            }
+            return await(join(batchWindowMillis));
+        }
+
+        private CompletableFuture<ServiceHealth> getAsync(final long batchWindowMillis) {
+            final ServiceHealth health = current;
+            if (health != null) {
+                ConsulMetricsProvider.get().cacheHit(serviceName);
+                return CompletableFuture.completedFuture(health);
+            }
+            return join(batchWindowMillis);
+        }
+
+        // joins the first fetch in flight, or requests it
+        private CompletableFuture<ServiceHealth> join(final long batchWindowMillis) {
+            CompletableFuture<ServiceHealth> fetch = inFlight.get();
+            if (fetch == null) {
+                final CompletableFuture<ServiceHealth> newFetch = new CompletableFuture<>();
+                if (inFlight.compareAndSet(null, newFetch)) {
+                    if (current != null) {
+                        // fetched in the meantime
+                        inFlight.set(null);
+                        newFetch.complete(current);
+                    } else {
+                        ConsulMetricsProvider.get().cacheMiss(serviceName);
+                        requestFetch(this, batchWindowMillis);
+                    }
+                    fetch = newFetch;
+                } else {
+                    fetch = inFlight.get();
+                    if (fetch == null) {
+                        return getAsync(batchWindowMillis);
+                    }
+                }
+            }
+            return fetch;
+        }
+
+        private void fetch() {
+            final CompletableFuture<ServiceHealth> fetch = inFlight.get();
+            final ConsulMetrics metrics = ConsulMetricsProvider.get();
+            try {
+                final ServiceHealth health = consulService.discoverHealthyNodes(serviceName, 0L, waitSeconds);
+                metrics.healthyInstances(serviceName, health.getNodes().size());
+                current = health;
+                changes.incrementAndGet();
+                if (running) {
+                    executor.execute(this);
+                }
+                inFlight.set(null);
+                fetch.complete(health);
+                publish(key, null, health);
+            } catch (IOException ioExc) {
+                metrics.agentError("health", ioExc);
+                inFlight.set(null);
+                fetch.completeExceptionally(ioExc);
+            }
+        }
+
+        private ServiceHealth await(final CompletableFuture<ServiceHealth> fetch) throws IOException {
+            try {
+                return fetch.get();
+            } catch (InterruptedException iExc) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while discovering " + serviceName);
+            } catch (ExecutionException eExc) {
+                throw eExc.getCause() instanceof IOException ? (IOException) eExc.getCause() : new IOException(eExc.getCause());
+            }
+        }
+
+        private void stop() {
+            running = false;
+        }
+
+        @Override
+        public void run() {
+            LOGGER.config(() -> "watching " + serviceName);
+            long retryDelay = RETRY_DELAY_MILLIS;
+            while (running) {
+                try {
+                    final ServiceHealth previous = current;
+                    // unchanged nodes are shared with the previous snapshot rather than retained twice
+                    final ServiceHealth next = consulService.discoverHealthyNodes(serviceName, previous.getIndex(), waitSeconds).reconcile(previous);
+                    if (next.getIndex() < previous.getIndex()) {
+                        // the index went backwards, Consul recommends starting over
+                        current = new ServiceHealth(serviceName, 0L, next.getNodes());
+                    } else {
+                        current = next;
+                    }
+                    ConsulMetricsProvider.get().healthyInstances(serviceName, next.getNodes().size());
+                    if (next.getIndex() != previous.getIndex()) {
+                        changes.incrementAndGet();
+                        if (!next.hasSameNodes(previous)) {
+                            publish(key, previous, current);
+                        }
+                    }
+                    retryDelay = RETRY_DELAY_MILLIS;
+                    if (next.getIndex() == 0L) {
+                        // no index returned, avoid spinning on non-blocking queries
+                        Thread.sleep(RETRY_DELAY_MILLIS);
+                    }
+                } catch (IOException ioExc) {
+                    ConsulMetricsProvider.get().agentError("health", ioExc);
+                    final long delay = retryDelay;
+                    LOGGER.warning(() -> "watch of " + serviceName + " failed, serving data from " + current.getAge()
+                            + "ms ago and retrying in " + delay + "ms: " + ioExc.getMessage());
+                    if (!pause(delay)) {
+                        break;
+                    }
+                    retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+                } catch (InterruptedException iExc) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            LOGGER.config(() -> "stopped watching " + serviceName);
+        }
+
+        private boolean pause(final long delay) {
+            try {
+                Thread.sleep(delay);
+                return true;
+            } catch (InterruptedException iExc) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import com.dwitech.eap.consulee.model.ServiceHealth;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Publishes the snapshots of the healthy nodes of a service as the watcher of the service receives them.
+ * Each subscriber first receives the current snapshot, then every new one. A subscriber that requests
+ * fewer snapshots than are published only receives the latest one once it requests more.
+ * The stream never completes; it fails if the service cannot be discovered in the first place.
+ * @since 1.0.0
+ */
+final class ServiceHealthPublisher implements Publisher<ServiceHealth> {
+    private final ConsulServiceDiscovery discovery;
+    private final ConsulService consulService;
+    private final String serviceName;
+
+    ServiceHealthPublisher(final ConsulServiceDiscovery discovery, final ConsulService consulService, final String serviceName) {
+        this.discovery = discovery;
+        this.consulService = consulService;
+        this.serviceName = serviceName;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super ServiceHealth> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        final HealthSubscription subscription = new HealthSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        ServiceHealthCache.getInstance().addListener(consulService, serviceName, subscription);
+        discovery.discoverServiceHealthAsync().whenComplete((serviceHealth, failure) -> {
+            if (failure != null) {
+                subscription.fail(failure instanceof CompletionException ? failure.getCause() : failure);
+            } else {
+                subscription.accept(serviceHealth);
+            }
+        });
+    }
+
+    private final class HealthSubscription implements Subscription, Consumer<ServiceHealth> {
+        private final Subscriber<? super ServiceHealth> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicReference<ServiceHealth> latest = new AtomicReference<>();
+        private final AtomicReference<ServiceHealth> pending = new AtomicReference<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final AtomicInteger draining = new AtomicInteger();
+        private volatile boolean cancelled;
+
+        private HealthSubscription(final Subscriber<? super ServiceHealth> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("non-positive request: " + n));
+                return;
+            }
+            demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            ServiceHealthCache.getInstance().removeListener(consulService, serviceName, this);
+        }
+
+        @Override
+        public void accept(final ServiceHealth serviceHealth) {
+            // the first fetch of a service is both returned to the lookup and published
+            if (latest.getAndSet(serviceHealth) != serviceHealth) {
+                pending.set(serviceHealth);
+                drain();
+            }
+        }
+
+        private void fail(final Throwable cause) {
+            if (failure.compareAndSet(null, cause)) {
+                drain();
+            }
+        }
+
+        // serializes the signals to the subscriber, whichever thread triggers them
+        private void drain() {
+            if (draining.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                if (cancelled) {
+                    continue;
+                }
+                final Throwable cause = failure.get();
+                if (cause != null) {
+                    cancel();
+                    subscriber.onError(cause);
+                    continue;
+                }
+                if (demand.get() > 0) {
+                    final ServiceHealth serviceHealth = pending.getAndSet(null);
+                    if (serviceHealth != null) {
+                        demand.decrementAndGet();
+                        subscriber.onNext(serviceHealth);
+                    }
+                }
+            } while (draining.decrementAndGet() != 0);
+        }
+    }
+}
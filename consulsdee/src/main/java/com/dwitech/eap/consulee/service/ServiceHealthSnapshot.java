@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+import com.dwitech.eap.consulee.model.ServiceHealth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Reads and writes the snapshots of the healthy nodes of the cached services to a local file.
+ * <p>
+ * The file starts with a magic number, a format version, the length of the payload and its CRC32,
+ * followed by the payload. It is written to a temporary file in the same directory, flushed to disk
+ * and renamed over the previous one, so that readers see either the old or the new snapshot.
+ * It is read through a memory mapping, and ignored as a whole if its checksum does not match.
+ * @since 1.0.0
+ */
+final class ServiceHealthSnapshot {
+    private static final int MAGIC = 0x43534545;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 4 + 4 + 4 + 8;
+
+    private ServiceHealthSnapshot() {}
+
+    /**
+     * @param file the snapshot file
+     * @param snapshots the snapshots per cache key
+     * @throws IOException if the file cannot be written
+     */
+    static void write(final Path file, final Map<String, ServiceHealth> snapshots) throws IOException {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream(4096);
+        final DataOutputStream out = new DataOutputStream(payload);
+        out.writeInt(snapshots.size());
+        for (Map.Entry<String, ServiceHealth> snapshot : snapshots.entrySet()) {
+            final ServiceHealth health = snapshot.getValue();
+            writeString(out, snapshot.getKey());
+            writeString(out, health.getServiceName());
+            out.writeLong(health.getIndex());
+            out.writeLong(health.getTimestamp());
+            out.writeInt(health.getNodes().size());
+            for (DiscoveryResult node : health.getNodeList()) {
+                writeString(out, node.getIp());
+                out.writeInt(node.getPort());
+                out.writeInt(node.getWeight());
+                writeString(out, node.getNode());
+                out.writeInt(node.getTags().size());
+                for (String tag : node.getTags()) {
+                    writeString(out, tag);
+                }
+                writeMap(out, node.getMeta());
+                writeMap(out, node.getNodeMeta());
+            }
+        }
+        out.flush();
+
+        final byte[] bytes = payload.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH)
+                .putInt(MAGIC).putInt(VERSION).putInt(bytes.length).putLong(crc.getValue());
+        // through Buffer, so that the call also links on Java 8, where ByteBuffer does not override flip()
+        ((Buffer) header).flip();
+
+        final Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, WRITE, CREATE, TRUNCATE_EXISTING)) {
+                final ByteBuffer body = ByteBuffer.wrap(bytes);
+                while (header.hasRemaining() || body.hasRemaining()) {
+                    channel.write(new ByteBuffer[]{header, body});
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @param file the snapshot file
+     * @return the snapshots per cache key, empty if the file does not exist
+     * @throws IOException if the file cannot be read, or is corrupted
+     */
+    static Map<String, ServiceHealth> read(final Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return emptyMap();
+        }
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a discovery snapshot");
+            }
+            if (buffer.getInt() != VERSION) {
+                throw new IOException(file + " has an unsupported version");
+            }
+            final int length = buffer.getInt();
+            final long checksum = buffer.getLong();
+            if (length != buffer.remaining()) {
+                throw new IOException(file + " is truncated");
+            }
+            // through ByteBuffer, as MappedByteBuffer only overrides slice() from Java 13
+            final ByteBuffer payload = ((ByteBuffer) buffer).slice();
+            final CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if (crc.getValue() != checksum) {
+                throw new IOException(file + " is corrupted");
+            }
+            return readPayload(payload);
+        } catch (BufferUnderflowException | IllegalArgumentException exc) {
+            throw new IOException(file + " is corrupted", exc);
+        }
+    }
+
+    private static Map<String, ServiceHealth> readPayload(final ByteBuffer in) {
+        final int count = in.getInt();
+        final Map<String, ServiceHealth> snapshots = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            final String key = readString(in);
+            final String serviceName = readString(in);
+            final long index = in.getLong();
+            final long timestamp = in.getLong();
+            final int nodeCount = in.getInt();
+            final Set<DiscoveryResult> nodes = new LinkedHashSet<>();
+            for (int j = 0; j < nodeCount; j++) {
+                final String ip = readString(in);
+                final int port = in.getInt();
+                final int weight = in.getInt();
+                final String node = readString(in);
+                final int tagCount = in.getInt();
+                final List<String> tags = new ArrayList<>(tagCount);
+                for (int k = 0; k < tagCount; k++) {
+                    tags.add(readString(in));
+                }
+                nodes.add(new DiscoveryResult(ip, port, weight, node, tags.isEmpty() ? emptyList() : unmodifiableList(tags),
+                        readMap(in), readMap(in)));
+            }
+            snapshots.put(key, new ServiceHealth(serviceName, index, nodes, timestamp));
+        }
+        return snapshots;
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(final ByteBuffer in) {
+        final int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeMap(final DataOutputStream out, final Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readMap(final ByteBuffer in) {
+        final int size = in.getInt();
+        if (size == 0) {
+            return emptyMap();
+        }
+        final Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(readString(in), readString(in));
+        }
+        return unmodifiableMap(map);
+    }
+}
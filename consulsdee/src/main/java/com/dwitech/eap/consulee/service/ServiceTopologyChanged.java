@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+import com.dwitech.eap.consulee.model.EndpointSet;
+import com.dwitech.eap.consulee.model.ServiceHealth;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Event fired when the healthy nodes of a service change, with the delta between the previous and the current nodes,
+ * so that connection pools and load balancers can be updated incrementally.
+ * A node is identified by its endpoint: a node whose weight, tags or metadata changed is modified, not removed and added.
+ * @since 1.0.0
+ */
+public final class ServiceTopologyChanged {
+    private final ServiceHealth previous;
+    private final ServiceHealth current;
+    private final List<DiscoveryResult> added;
+    private final List<DiscoveryResult> removed;
+    private final List<DiscoveryResult> modified;
+
+    /**
+     * @param previous the previous nodes, null when the service was just discovered
+     * @param current the current nodes
+     */
+    public ServiceTopologyChanged(final ServiceHealth previous, final ServiceHealth current) {
+        this.previous = previous;
+        this.current = current;
+        final Delta delta = new Delta();
+        (previous == null ? EndpointSet.EMPTY : previous.getEndpoints()).diff(current.getEndpoints(), delta);
+        this.added = delta.added;
+        this.removed = delta.removed;
+        this.modified = delta.modified;
+    }
+
+    public String getServiceName() {
+        return current.getServiceName();
+    }
+
+    /**
+     * @return the previous nodes, null when the service was just discovered
+     */
+    public ServiceHealth getPrevious() {
+        return previous;
+    }
+
+    public ServiceHealth getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return the nodes whose endpoint was not healthy before
+     */
+    public List<DiscoveryResult> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return the nodes whose endpoint is no longer healthy
+     */
+    public List<DiscoveryResult> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return the current version of the nodes whose weight, tags or metadata changed
+     */
+    public List<DiscoveryResult> getModified() {
+        return modified;
+    }
+
+    /**
+     * @return true if the nodes did not change
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+    }
+
+    private static final class Delta implements EndpointSet.Visitor {
+        private List<DiscoveryResult> added = emptyList();
+        private List<DiscoveryResult> removed = emptyList();
+        private List<DiscoveryResult> modified = emptyList();
+
+        @Override
+        public void added(final DiscoveryResult node) {
+            added = append(added, node);
+        }
+
+        @Override
+        public void removed(final DiscoveryResult node) {
+            removed = append(removed, node);
+        }
+
+        @Override
+        public void modified(final DiscoveryResult previous, final DiscoveryResult current) {
+            modified = append(modified, current);
+        }
+
+        private static List<DiscoveryResult> append(final List<DiscoveryResult> nodes, final DiscoveryResult node) {
+            final List<DiscoveryResult> appended = nodes.isEmpty() ? new ArrayList<>() : nodes;
+            appended.add(node);
+            return appended;
+        }
+    }
+}
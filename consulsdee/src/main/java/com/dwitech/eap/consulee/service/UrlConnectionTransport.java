@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static com.dwitech.eap.consulee.service.Utility.closeQuitely;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_OK;
+
+/**
+ * {@link ConsulTransport} over {@link HttpURLConnection}.
+ * Connections are kept alive and pooled by the JDK (see the {@code http.maxConnections} system property):
+ * bodies are always read to the end and closed, never disconnected, so that the connection goes back to the pool.
+ * @since 1.0.0
+ */
+public class UrlConnectionTransport implements ConsulTransport {
+    private static final String CONSUL_INDEX_HEADER = "X-Consul-Index";
+    private static final int DRAIN_BUFFER_SIZE = 4096;
+
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    /**
+     * @param connectTimeout the connect timeout in milliseconds
+     * @param readTimeout the default read timeout in milliseconds
+     */
+    public UrlConnectionTransport(final int connectTimeout, final int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public <T> T get(final String url, final int readTimeout, final ResponseHandler<T> handler) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout > 0 ? readTimeout : this.readTimeout);
+        connection.setRequestProperty("Accept", "application/json");
+
+        final int status = connection.getResponseCode();
+        if (status != HTTP_OK) {
+            drain(connection.getErrorStream());
+            if (status == HTTP_NOT_FOUND) {
+                throw new FileNotFoundException("Consul agent found nothing at " + url);
+            }
+            throw new IOException("Consul agent answered " + status + " to " + url);
+        }
+
+        final InputStream body = connection.getInputStream();
+        try {
+            final String consulIndex = connection.getHeaderField(CONSUL_INDEX_HEADER);
+            final T result = handler.handle(body, consulIndex == null ? 0L : Long.parseLong(consulIndex));
+            drain(body);
+            return result;
+        } finally {
+            closeQuitely(body);
+        }
+    }
+
+    private static void drain(final InputStream inputStream) throws IOException {
+        if (inputStream != null) {
+            try {
+                final byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                while (inputStream.read(buffer) >= 0) {
+                    // discard what the decoder did not read
+                }
+            } finally {
+                closeQuitely(inputStream);
+            }
+        }
+    }
+}
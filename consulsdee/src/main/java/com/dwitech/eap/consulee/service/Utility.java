@@ -27,6 +27,14 @@ public class Utility {
     public Utility() {
     }
 
+    /**
+     * Reads the whole response of the given URL.
+     * @param urlString the URL to read
+     * @return the response body
+     * @throws IOException if the URL cannot be read
+     * @deprecated use a {@link ConsulTransport}, which streams the response and reuses connections
+     */
+    @Deprecated
     public static String readUrl(String urlString) throws IOException {
         StringBuffer result = new StringBuffer();
         BufferedReader br = null;
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.client;
+
+import com.dwitech.eap.consulee.ConsulConfiguration;
+import com.dwitech.eap.consulee.loadbalancer.ObservedLatencies;
+import com.dwitech.eap.consulee.loadbalancer.OutlierDetector;
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+import com.dwitech.eap.consulee.service.ConsulServiceDiscovery;
+import com.dwitech.eap.consulee.service.ServiceHealthCache;
+import com.dwitech.eap.consulee.testing.StubConsulAgent;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ClientRegistryTest {
+    private static final String SERVICE = "prewarmed";
+    private static final String[] PROPERTIES = {"consulHost", "consulPort", "consulWatchWait", "consulBatchWindow",
+            "clientPrewarmConnections", "outlierConsecutiveFailures"};
+
+    private StubConsulAgent agent;
+    private Node first;
+    private Node second;
+    private ConsulServiceDiscovery discovery;
+
+    @Before
+    public void setUp() throws IOException {
+        agent = new StubConsulAgent(0);
+        first = new Node();
+        second = new Node();
+        System.setProperty("consulHost", agent.getHost());
+        System.setProperty("consulPort", agent.getPort());
+        System.setProperty("consulWatchWait", "1");
+        System.setProperty("consulBatchWindow", "0");
+        System.setProperty("clientPrewarmConnections", "2");
+        System.setProperty("outlierConsecutiveFailures", "2");
+        agent.register("first", SERVICE, "127.0.0.1", first.port());
+        discovery = new ConsulServiceDiscovery(ConsulConfiguration.reload(), SERVICE, null);
+    }
+
+    @After
+    public void tearDown() {
+        ClientRegistry.getInstance().close();
+        ServiceHealthCache.getInstance().shutdown();
+        agent.close();
+        first.stop();
+        second.stop();
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+        ConsulConfiguration.reload();
+    }
+
+    @Test
+    public void warmsUpTheConnectionsToAddedNodes() throws InterruptedException {
+        call(target(discovery.discoverServiceConfiguration()));
+
+        agent.register("second", SERVICE, "127.0.0.1", second.port());
+
+        await(() -> second.warmUps.get() == 2);
+        // the warm-up requests are neither counted nor observed
+        Thread.sleep(200);
+        assertEquals(-1L, ObservedLatencies.latency("127.0.0.1", second.port()));
+    }
+
+    @Test
+    public void drainsRemovedNodes() throws InterruptedException {
+        agent.register("second", SERVICE, "127.0.0.1", second.port());
+        // watches the service
+        assertEquals(2, discovery.discoverServiceHealth().getNodes().size());
+        final ConsulConfig consulConfig = discovery.readConfiguration();
+        consulConfig.setServiceHost("127.0.0.1");
+        consulConfig.setServicePort(String.valueOf(first.port()));
+        final WebTarget target = target(consulConfig);
+        call(target);
+        assertTrue(ObservedLatencies.latency("127.0.0.1", first.port()) > 0);
+        final OutlierDetector detector = OutlierDetector.forService(SERVICE, consulConfig);
+        detector.failure("127.0.0.1", first.port());
+        detector.failure("127.0.0.1", first.port());
+        final List<DiscoveryResult> nodes = asList(new DiscoveryResult("127.0.0.1", first.port()), new DiscoveryResult("127.0.0.1", second.port()));
+        assertEquals(1, detector.available(nodes).size());
+
+        agent.deregister("first");
+
+        await(() -> detector.available(nodes) == nodes);
+        assertEquals(-1L, ObservedLatencies.latency("127.0.0.1", first.port()));
+        assertNotSame(target, target(consulConfig));
+        assertSame(target(consulConfig), target(consulConfig));
+    }
+
+    private static WebTarget target(final ConsulConfig consulConfig) {
+        return ClientRegistry.getInstance().target(SERVICE, consulConfig);
+    }
+
+    private static void call(final WebTarget target) {
+        final Response response = target.request().get();
+        try {
+            assertEquals(200, response.getStatus());
+        } finally {
+            response.close();
+        }
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    // a node of the service, counting the warm-up requests it receives
+    private static final class Node {
+        private final HttpServer server;
+        private final AtomicInteger warmUps = new AtomicInteger();
+
+        private Node() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/", exchange -> {
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    warmUps.incrementAndGet();
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            });
+            server.start();
+        }
+
+        private int port() {
+            return server.getAddress().getPort();
+        }
+
+        private void stop() {
+            server.stop(0);
+        }
+    }
+}
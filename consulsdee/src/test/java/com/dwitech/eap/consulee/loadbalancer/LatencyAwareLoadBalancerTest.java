@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class LatencyAwareLoadBalancerTest {
+    private final DiscoveryResult nearest = new DiscoveryResult("10.2.0.1", 8080);
+    private final DiscoveryResult near = new DiscoveryResult("10.2.0.2", 8080);
+    private final DiscoveryResult far = new DiscoveryResult("10.2.0.3", 8080);
+    private final List<DiscoveryResult> nodes = asList(nearest, near, far);
+    private final LoadBalancer balancer = new LatencyAwareLoadBalancer();
+
+    @After
+    public void tearDown() {
+        for (DiscoveryResult node : nodes) {
+            OutstandingRequests.remove(node.getIp(), node.getPort());
+            ObservedLatencies.remove(node.getIp(), node.getPort());
+        }
+    }
+
+    @Test
+    public void prefersTheNearestNodeWithoutObservations() {
+        for (int i = 0; i < 100; i++) {
+            assertSame(nearest, balancer.choose(nodes));
+        }
+    }
+
+    @Test
+    public void prefersTheFastestObservedNode() {
+        observe(nearest, 10);
+        observe(near, 2);
+        observe(far, 5);
+
+        for (int i = 0; i < 100; i++) {
+            assertSame(near, balancer.choose(nodes));
+        }
+    }
+
+    @Test
+    public void spillsOverToTheNextNodeUnderLoad() {
+        observe(nearest, 1);
+        observe(near, 2);
+        observe(far, 10);
+        inFlight(nearest, 3);
+
+        assertSame(near, balancer.choose(nodes));
+    }
+
+    @Test
+    public void probesTheNearestUnobservedNodeOnceIn64Calls() {
+        observe(nearest, 1);
+        observe(near, 1);
+        final int picks = 64000;
+        int probes = 0;
+        for (int i = 0; i < picks; i++) {
+            if (balancer.choose(nodes) == far) {
+                probes++;
+            }
+        }
+
+        assertEquals(picks / 64, probes, picks / 64 / 4);
+    }
+
+    private static void observe(final DiscoveryResult node, final long millis) {
+        ObservedLatencies.record(node.getIp(), node.getPort(), MILLISECONDS.toNanos(millis));
+    }
+
+    private static void inFlight(final DiscoveryResult node, final int requests) {
+        for (int i = 0; i < requests; i++) {
+            OutstandingRequests.increment(node.getIp(), node.getPort(), System.nanoTime(), SECONDS.toNanos(60));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import com.dwitech.eap.consulee.ConsulConfigurationException;
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.dwitech.eap.consulee.loadbalancer.LoadBalancers.LEAST_OUTSTANDING_REQUESTS;
+import static com.dwitech.eap.consulee.loadbalancer.LoadBalancers.POWER_OF_TWO_CHOICES;
+import static com.dwitech.eap.consulee.loadbalancer.LoadBalancers.ROUND_ROBIN;
+import static com.dwitech.eap.consulee.loadbalancer.LoadBalancers.WEIGHTED_RANDOM;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LoadBalancersTest {
+    private static final int PICKS = 30000;
+
+    private final DiscoveryResult first = new DiscoveryResult("10.1.0.1", 8080, 1);
+    private final DiscoveryResult second = new DiscoveryResult("10.1.0.2", 8080, 3);
+    private final DiscoveryResult third = new DiscoveryResult("10.1.0.3", 8080, 0);
+    private final List<DiscoveryResult> nodes = asList(first, second, third);
+
+    @After
+    public void tearDown() {
+        for (DiscoveryResult node : nodes) {
+            OutstandingRequests.remove(node.getIp(), node.getPort());
+        }
+    }
+
+    @Test
+    public void roundRobinVisitsTheNodesInTurn() {
+        final LoadBalancer balancer = LoadBalancers.create(ROUND_ROBIN);
+        DiscoveryResult previous = balancer.choose(nodes);
+        for (int i = 0; i < 3 * nodes.size(); i++) {
+            final DiscoveryResult chosen = balancer.choose(nodes);
+            assertSame(nodes.get((nodes.indexOf(previous) + 1) % nodes.size()), chosen);
+            previous = chosen;
+        }
+    }
+
+    @Test
+    public void weightedRandomHonoursThePassingWeights() {
+        final Map<DiscoveryResult, Integer> picks = pick(LoadBalancers.create(WEIGHTED_RANDOM), nodes);
+
+        assertEquals(0.25, (double) picks.getOrDefault(first, 0) / PICKS, 0.02);
+        assertEquals(0.75, (double) picks.getOrDefault(second, 0) / PICKS, 0.02);
+        assertEquals(0, (int) picks.getOrDefault(third, 0));
+    }
+
+    @Test
+    public void weightedRandomSpreadsEvenlyWithoutWeight() {
+        final List<DiscoveryResult> unweighted = asList(new DiscoveryResult("10.1.0.1", 8080, 0), new DiscoveryResult("10.1.0.2", 8080, 0));
+        final Map<DiscoveryResult, Integer> picks = pick(LoadBalancers.create(WEIGHTED_RANDOM), unweighted);
+
+        assertEquals(0.5, (double) picks.getOrDefault(unweighted.get(0), 0) / PICKS, 0.02);
+    }
+
+    @Test
+    public void leastOutstandingPicksTheLeastLoadedNode() {
+        inFlight(first, 3);
+        inFlight(second, 1);
+        final LoadBalancer balancer = LoadBalancers.create(LEAST_OUTSTANDING_REQUESTS);
+
+        assertEquals(PICKS, (int) pick(balancer, nodes).getOrDefault(third, 0));
+    }
+
+    @Test
+    public void leastOutstandingBreaksTiesRandomly() {
+        inFlight(first, 1);
+        inFlight(second, 1);
+        inFlight(third, 2);
+        final Map<DiscoveryResult, Integer> picks = pick(LoadBalancers.create(LEAST_OUTSTANDING_REQUESTS), nodes);
+
+        assertEquals(0.5, (double) picks.getOrDefault(first, 0) / PICKS, 0.03);
+        assertEquals(0, (int) picks.getOrDefault(third, 0));
+    }
+
+    @Test
+    public void powerOfTwoChoicesKeepsTheLessLoadedOfTwoNodes() {
+        inFlight(second, 5);
+        inFlight(third, 10);
+        final Map<DiscoveryResult, Integer> picks = pick(LoadBalancers.create(POWER_OF_TWO_CHOICES), nodes);
+
+        // the least loaded node is in two pairs out of three, the most loaded one wins none
+        assertEquals(2.0 / 3, (double) picks.getOrDefault(first, 0) / PICKS, 0.02);
+        assertEquals(1.0 / 3, (double) picks.getOrDefault(second, 0) / PICKS, 0.02);
+        assertEquals(0, (int) picks.getOrDefault(third, 0));
+    }
+
+    @Test
+    public void failedRequestsAreCountedDown() {
+        inFlight(first, 2);
+        OutstandingRequests.decrement(first.getIp(), first.getPort());
+
+        assertEquals(1, OutstandingRequests.outstanding(first));
+        OutstandingRequests.decrement(first.getIp(), first.getPort());
+        OutstandingRequests.decrement(first.getIp(), first.getPort());
+        assertEquals(0, OutstandingRequests.outstanding(first));
+    }
+
+    @Test
+    public void balancersAreSharedPerServiceAndStrategy() {
+        final LoadBalancer balancer = LoadBalancers.forService("orders", ROUND_ROBIN);
+
+        assertSame(balancer, LoadBalancers.forService("orders", ROUND_ROBIN));
+        assertNotSame(balancer, LoadBalancers.forService("payments", ROUND_ROBIN));
+        assertNotEquals(balancer.getClass(), LoadBalancers.forService("orders", WEIGHTED_RANDOM).getClass());
+    }
+
+    @Test
+    public void customBalancersAreCreatedByClassName() {
+        assertTrue(LoadBalancers.create(FirstNodeLoadBalancer.class.getName()) instanceof FirstNodeLoadBalancer);
+    }
+
+    @Test(expected = ConsulConfigurationException.class)
+    public void unknownStrategyIsRejected() {
+        LoadBalancers.create("fastest-first");
+    }
+
+    private static Map<DiscoveryResult, Integer> pick(final LoadBalancer balancer, final List<DiscoveryResult> nodes) {
+        final Map<DiscoveryResult, Integer> picks = new HashMap<>();
+        for (int i = 0; i < PICKS; i++) {
+            picks.merge(balancer.choose(nodes), 1, Integer::sum);
+        }
+        return picks;
+    }
+
+    private static void inFlight(final DiscoveryResult node, final int requests) {
+        for (int i = 0; i < requests; i++) {
+            OutstandingRequests.increment(node.getIp(), node.getPort(), System.nanoTime(), SECONDS.toNanos(60));
+        }
+    }
+
+    public static final class FirstNodeLoadBalancer implements LoadBalancer {
+        @Override
+        public DiscoveryResult choose(final List<DiscoveryResult> nodes) {
+            return nodes.get(0);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.loadbalancer;
+
+import com.dwitech.eap.consulee.client.ConsulConfig;
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class OutlierDetectorTest {
+    private static final long EJECTION_TIME = 200;
+    private static final long FAST = MILLISECONDS.toNanos(1);
+
+    @Rule
+    public final TestName testName = new TestName();
+
+    private final DiscoveryResult first = new DiscoveryResult("10.0.0.1", 8080);
+    private final DiscoveryResult second = new DiscoveryResult("10.0.0.2", 8080);
+    private final DiscoveryResult third = new DiscoveryResult("10.0.0.3", 8080);
+    private final DiscoveryResult fourth = new DiscoveryResult("10.0.0.4", 8080);
+    private final List<DiscoveryResult> nodes = asList(first, second, third, fourth);
+
+    private OutlierDetector detector;
+
+    @Before
+    public void setUp() {
+        final ConsulConfig consulConfig = new ConsulConfig();
+        consulConfig.setOutlierConsecutiveFailures("3");
+        consulConfig.setOutlierLatencyThreshold("100");
+        consulConfig.setOutlierEjectionTime(String.valueOf(EJECTION_TIME));
+        consulConfig.setOutlierMaxEjectionPercent("50");
+        // the detectors are shared per service
+        detector = OutlierDetector.forService(getClass().getSimpleName() + "." + testName.getMethodName(), consulConfig);
+    }
+
+    @Test
+    public void consecutiveFailuresEjectTheNode() {
+        detector.failure("10.0.0.1", 8080);
+        detector.failure("10.0.0.1", 8080);
+        assertSame(nodes, detector.available(nodes));
+
+        detector.failure("10.0.0.1", 8080);
+        assertEquals(asList(second, third, fourth), detector.available(nodes));
+    }
+
+    @Test
+    public void successResetsTheFailures() {
+        detector.failure("10.0.0.1", 8080);
+        detector.failure("10.0.0.1", 8080);
+        detector.record("10.0.0.1", 8080, 200, FAST);
+        detector.failure("10.0.0.1", 8080);
+        detector.failure("10.0.0.1", 8080);
+
+        assertSame(nodes, detector.available(nodes));
+    }
+
+    @Test
+    public void serverErrorsAndSlowResponsesAreFailures() {
+        detector.record("10.0.0.2", 8080, 503, FAST);
+        detector.record("10.0.0.2", 8080, 200, MILLISECONDS.toNanos(150));
+        detector.record("10.0.0.2", 8080, 500, FAST);
+
+        assertEquals(asList(first, third, fourth), detector.available(nodes));
+    }
+
+    @Test
+    public void clientErrorsAreNotFailures() {
+        for (int i = 0; i < 5; i++) {
+            detector.record("10.0.0.2", 8080, 404, FAST);
+        }
+
+        assertSame(nodes, detector.available(nodes));
+    }
+
+    @Test
+    public void ejectionsAreCapped() {
+        eject("10.0.0.1");
+        eject("10.0.0.2");
+        eject("10.0.0.3");
+
+        assertEquals(asList(third, fourth), detector.available(nodes));
+    }
+
+    @Test
+    public void halfOpenNodeGetsASingleProbe() throws InterruptedException {
+        eject("10.0.0.1");
+        assertNull(detector.probe(nodes));
+
+        Thread.sleep(EJECTION_TIME + 50);
+        assertSame(first, detector.probe(nodes));
+        assertNull(detector.probe(nodes));
+        assertEquals(asList(second, third, fourth), detector.available(nodes));
+    }
+
+    @Test
+    public void successfulProbeRestoresTheNode() throws InterruptedException {
+        eject("10.0.0.1");
+        Thread.sleep(EJECTION_TIME + 50);
+        assertSame(first, detector.probe(nodes));
+
+        detector.record("10.0.0.1", 8080, 200, FAST);
+        assertSame(nodes, detector.available(nodes));
+        assertNull(detector.probe(nodes));
+    }
+
+    @Test
+    public void failedProbeEjectsTheNodeForLonger() throws InterruptedException {
+        eject("10.0.0.1");
+        Thread.sleep(EJECTION_TIME + 50);
+        assertSame(first, detector.probe(nodes));
+
+        detector.record("10.0.0.1", 8080, 503, FAST);
+        assertEquals(asList(second, third, fourth), detector.available(nodes));
+        Thread.sleep(EJECTION_TIME + 50);
+        assertNull(detector.probe(nodes));
+        Thread.sleep(EJECTION_TIME);
+        assertSame(first, detector.probe(nodes));
+    }
+
+    @Test
+    public void unansweredProbeIsRetriedAfterTheEjectionTime() throws InterruptedException {
+        eject("10.0.0.1");
+        Thread.sleep(EJECTION_TIME + 50);
+        assertSame(first, detector.probe(nodes));
+
+        Thread.sleep(EJECTION_TIME + 50);
+        assertSame(first, detector.probe(nodes));
+    }
+
+    @Test
+    public void removedNodeLeavesNoState() {
+        eject("10.0.0.1");
+        detector.remove("10.0.0.1", 8080);
+
+        assertSame(nodes, detector.available(nodes));
+        assertNull(detector.probe(nodes));
+    }
+
+    @Test
+    public void nodeAddedBackStartsWithoutFailures() {
+        detector.failure("10.0.0.1", 8080);
+        detector.failure("10.0.0.1", 8080);
+        detector.remove("10.0.0.1", 8080);
+        detector.failure("10.0.0.1", 8080);
+
+        assertSame(nodes, detector.available(nodes));
+    }
+
+    private void eject(final String host) {
+        for (int i = 0; i < 3; i++) {
+            detector.failure(host, 8080);
+        }
+    }
+}
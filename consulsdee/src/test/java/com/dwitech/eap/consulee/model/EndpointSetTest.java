@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EndpointSetTest {
+
+    @Test
+    public void sortsIpv6ThenIpv4MappedThenHostNames() {
+        final EndpointSet endpoints = EndpointSet.of(asList(node("host.example", 80), node("fe80::1", 80), node("10.0.0.2", 80),
+                node("10.0.0.1", 8080), node("10.0.0.1", 80), node("::1", 80)));
+
+        assertEquals(6, endpoints.size());
+        final List<String> order = new ArrayList<>();
+        for (int i = 0; i < endpoints.size(); i++) {
+            order.add(endpoints.get(i).toString());
+        }
+        assertEquals(asList("::1:80", "10.0.0.1:80", "10.0.0.1:8080", "10.0.0.2:80", "fe80::1:80", "host.example:80"), order);
+    }
+
+    @Test
+    public void findsEndpointsWhateverTheirNotation() {
+        final EndpointSet endpoints = EndpointSet.of(asList(node("10.0.0.1", 80), node("2001:db8::1", 443), node("host.example", 80)));
+
+        assertTrue(endpoints.contains("10.0.0.1", 80));
+        assertTrue(endpoints.contains("::ffff:10.0.0.1", 80));
+        assertTrue(endpoints.contains("2001:0db8:0:0:0:0:0:1", 443));
+        assertTrue(endpoints.contains("[2001:db8::1]", 443));
+        assertTrue(endpoints.contains("host.example", 80));
+        assertFalse(endpoints.contains("10.0.0.1", 81));
+        assertFalse(endpoints.contains("10.0.0.10", 80));
+        assertFalse(endpoints.contains("other.example", 80));
+    }
+
+    @Test
+    public void equalSetsIgnoreTheOrderOfTheNodes() {
+        final EndpointSet endpoints = EndpointSet.of(asList(node("10.0.0.1", 80), node("10.0.0.2", 80)));
+        final EndpointSet reversed = EndpointSet.of(asList(node("10.0.0.2", 80), node("10.0.0.1", 80)));
+
+        assertEquals(endpoints, reversed);
+        assertEquals(endpoints.hashCode(), reversed.hashCode());
+        assertNotEquals(endpoints, EndpointSet.of(singletonList(node("10.0.0.1", 80))));
+        assertSame(EndpointSet.EMPTY, EndpointSet.of(emptyList()));
+    }
+
+    @Test
+    public void diffReportsAddedRemovedAndModifiedNodes() {
+        final EndpointSet older = EndpointSet.of(asList(node("10.0.0.1", 80), node("10.0.0.2", 80), node("10.0.0.3", 80)));
+        final DiscoveryResult reweighted = new DiscoveryResult("10.0.0.2", 80, 5);
+        final EndpointSet newer = EndpointSet.of(asList(reweighted, node("10.0.0.3", 80), node("10.0.0.4", 80)));
+        final Recorder recorder = new Recorder();
+
+        assertTrue(older.diff(newer, recorder));
+        assertEquals(singletonList("10.0.0.4:80"), recorder.added);
+        assertEquals(singletonList("10.0.0.1:80"), recorder.removed);
+        assertEquals(singletonList(reweighted), recorder.modified);
+    }
+
+    @Test
+    public void diffOfEqualSetsReportsNothing() {
+        final EndpointSet endpoints = EndpointSet.of(asList(node("10.0.0.1", 80), node("host.example", 80)));
+        final Recorder recorder = new Recorder();
+
+        assertFalse(endpoints.diff(EndpointSet.of(asList(node("host.example", 80), node("10.0.0.1", 80))), recorder));
+        assertTrue(recorder.added.isEmpty() && recorder.removed.isEmpty() && recorder.modified.isEmpty());
+    }
+
+    @Test
+    public void diffFromEmptyAddsEveryNode() {
+        final Recorder recorder = new Recorder();
+
+        assertTrue(EndpointSet.EMPTY.diff(EndpointSet.of(asList(node("10.0.0.2", 80), node("10.0.0.1", 80))), recorder));
+        assertEquals(asList("10.0.0.1:80", "10.0.0.2:80"), recorder.added);
+    }
+
+    private static DiscoveryResult node(final String ip, final int port) {
+        return new DiscoveryResult(ip, port, 1, null, emptyList(), emptyMap(), emptyMap());
+    }
+
+    private static final class Recorder implements EndpointSet.Visitor {
+        private final List<String> added = new ArrayList<>();
+        private final List<String> removed = new ArrayList<>();
+        private final List<DiscoveryResult> modified = new ArrayList<>();
+
+        @Override
+        public void added(final DiscoveryResult node) {
+            added.add(node.toString());
+        }
+
+        @Override
+        public void removed(final DiscoveryResult node) {
+            removed.add(node.toString());
+        }
+
+        @Override
+        public void modified(final DiscoveryResult previous, final DiscoveryResult current) {
+            modified.add(current);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import com.dwitech.eap.consulee.ConsulConfiguration;
+import com.dwitech.eap.consulee.testing.StubConsulAgent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static java.util.Collections.singleton;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConsulKeyValueSourceTest {
+    private static final String[] PROPERTIES = {"consulHost", "consulPort", "consulKvPrefix", "consulWatchWait"};
+
+    private StubConsulAgent agent;
+    private final ConsulKeyValueSource source = ConsulKeyValueSource.getInstance();
+
+    @Before
+    public void setUp() throws IOException {
+        agent = new StubConsulAgent(0);
+        System.setProperty("consulHost", agent.getHost());
+        System.setProperty("consulPort", agent.getPort());
+        System.setProperty("consulWatchWait", "1");
+    }
+
+    @After
+    public void tearDown() {
+        source.shutdown();
+        agent.close();
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+        ConsulConfiguration.reload();
+    }
+
+    @Test
+    public void encodesEachSegmentOfThePrefix() throws IOException {
+        assertEquals("config/my%20app/a%2Bb%25c%3Fd%23e/", ConsulKeyValueSource.encodePath("config/my app/a+b%c?d#e/"));
+        assertEquals("config//orders", ConsulKeyValueSource.encodePath("config//orders"));
+    }
+
+    @Test
+    public void readsPrefixWithReservedCharacters() {
+        agent.putValue("config/my app?v=1#%/greeting", "hello");
+        agent.putValue("config/my app/greeting", "wrong prefix");
+
+        watch("config/my app?v=1#%/");
+
+        assertEquals("hello", source.get("greeting"));
+        assertEquals(1, source.getSnapshot().getValues().size());
+    }
+
+    @Test
+    public void decodesTheValuesUnderThePrefix() {
+        agent.putValue("config/orders/greeting", "h\u00e9llo w\u00f6rld");
+        agent.putValue("config/orders/empty", null);
+        agent.putValue("config/orders/folder/", null);
+        agent.putValue("config/orders/folder/nested", "42");
+        agent.putValue("config/payments/greeting", "other service");
+
+        watch("/config/orders/");
+
+        assertEquals("h\u00e9llo w\u00f6rld", source.get("greeting"));
+        assertEquals("", source.get("empty"));
+        assertEquals("42", source.get("folder/nested"));
+        assertEquals(3, source.getSnapshot().getValues().size());
+        assertEquals("fallback", source.get("missing", "fallback"));
+    }
+
+    @Test
+    public void missingPrefixIsEmpty() throws InterruptedException {
+        agent.setMaxWait(100);
+
+        watch("config/absent/");
+
+        await(() -> source.getSnapshot().getValues().isEmpty());
+        assertNull(source.get("greeting"));
+    }
+
+    @Test
+    public void notifiesTheChangedKeys() throws InterruptedException {
+        agent.putValue("config/orders/greeting", "hello");
+        final BlockingQueue<KeyValuesChanged> events = new LinkedBlockingQueue<>();
+        final Consumer<KeyValuesChanged> listener = events::add;
+        watch("config/orders/");
+        source.addListener(listener);
+        try {
+            agent.putValue("config/orders/greeting", "bonjour");
+
+            final KeyValuesChanged changed = events.poll(5, SECONDS);
+            assertNotNull(changed);
+            assertEquals(singleton("greeting"), changed.getChangedKeys());
+            assertEquals("hello", changed.getPrevious().get("greeting"));
+            assertEquals("bonjour", changed.getCurrent().get("greeting"));
+            assertEquals("bonjour", source.get("greeting"));
+
+            agent.putValue("config/payments/greeting", "other service");
+            assertNull(events.poll(1500, MILLISECONDS));
+        } finally {
+            source.removeListener(listener);
+        }
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private void watch(final String prefix) {
+        System.setProperty("consulKvPrefix", prefix);
+        source.watch(ConsulConfiguration.reload());
+    }
+}
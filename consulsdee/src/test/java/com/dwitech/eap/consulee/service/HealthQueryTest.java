@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HealthQueryTest {
+
+    @Test
+    public void allHasNoParameter() {
+        assertTrue(HealthQuery.ALL.isEmpty());
+        assertEquals("", HealthQuery.ALL.toQueryString());
+        assertTrue(HealthQuery.of(null, null, null, null).isEmpty());
+    }
+
+    @Test
+    public void encodesTagsDatacenterNearAndFilter() {
+        final HealthQuery query = HealthQuery.of(" a , b ", "dc1", HealthQuery.NEAR_AGENT, "Service.Meta.env == \"prod\"");
+
+        assertFalse(query.isEmpty());
+        assertEquals(asList("a", "b"), query.getTags());
+        assertEquals("&tag=a&tag=b&dc=dc1&near=_agent&filter=Service.Meta.env+%3D%3D+%22prod%22", query.toQueryString());
+    }
+
+    @Test
+    public void encodesReservedCharacters() {
+        assertEquals("&tag=v1%2Fblue&tag=a%26b", HealthQuery.of("v1/blue,a&b", null, null, null).toQueryString());
+    }
+
+    @Test
+    public void ignoresBlankValues() {
+        final HealthQuery query = new HealthQuery(asList(" ", "", "blue"), " ", "", null);
+
+        assertEquals(asList("blue"), query.getTags());
+        assertEquals("&tag=blue", query.toQueryString());
+        assertTrue(HealthQuery.of(" , ", "  ", " ", "").isEmpty());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import com.dwitech.eap.consulee.ConsulConfigurationException;
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HealthResponseDecoderTest {
+    private static final String RESPONSE = "["
+            + "{\"Node\":{\"ID\":\"40e4a748\",\"Node\":\"node-1\",\"Address\":\"10.0.0.1\",\"Datacenter\":\"dc1\","
+            + "\"TaggedAddresses\":{\"lan\":\"10.0.0.1\",\"wan\":\"10.0.0.1\"},\"Meta\":{\"zone\":\"a\"},\"CreateIndex\":1,\"ModifyIndex\":2},"
+            + "\"Service\":{\"ID\":\"orders-1\",\"Service\":\"orders\",\"Tags\":[\"v1\",\"blue\"],\"Address\":\"10.0.1.1\","
+            + "\"Meta\":{\"version\":\"1.2\",\"empty\":\"\"},\"Port\":8080,\"Weights\":{\"Passing\":10,\"Warning\":1},"
+            + "\"EnableTagOverride\":false,\"Proxy\":{\"MeshGateway\":{},\"Expose\":{}},\"Connect\":{},\"CreateIndex\":3,\"ModifyIndex\":4},"
+            + "\"Checks\":[{\"Node\":\"node-1\",\"CheckID\":\"serfHealth\",\"Name\":\"Serf Health Status\",\"Status\":\"passing\","
+            + "\"Notes\":\"\",\"Output\":\"Agent alive and reachable\",\"ServiceID\":\"\",\"ServiceName\":\"\",\"ServiceTags\":[],"
+            + "\"Definition\":{},\"CreateIndex\":1,\"ModifyIndex\":1}]},"
+            + "{\"Node\":{\"Node\":\"node-2\",\"Address\":\"10.0.0.2\",\"Meta\":null},"
+            + "\"Service\":{\"ID\":\"orders-2\",\"Service\":\"orders\",\"Tags\":null,\"Address\":\"\",\"Meta\":null,\"Port\":8081},"
+            + "\"Checks\":[]},"
+            + "{\"Node\":{\"Node\":\"node-3\",\"Address\":\"2001:db8::3\"},"
+            + "\"Service\":{\"ID\":\"orders-3\",\"Service\":\"orders\",\"Tags\":[],\"Address\":\"2001:db8::13\",\"Port\":8082,"
+            + "\"Weights\":{\"Warning\":1,\"Passing\":0}},"
+            + "\"Checks\":[]}"
+            + "]";
+
+    @Test
+    public void projectionDecodesLikeTheModel() throws IOException {
+        final List<DiscoveryResult> projected = decode(HealthResponseDecoder.PROJECTION, RESPONSE);
+        final List<DiscoveryResult> modelled = decode(HealthResponseDecoder.MODEL, RESPONSE);
+
+        assertEquals(modelled, projected);
+        for (int i = 0; i < modelled.size(); i++) {
+            assertEquals(modelled.get(i).getNode(), projected.get(i).getNode());
+            assertEquals(modelled.get(i).getWeight(), projected.get(i).getWeight());
+            assertEquals(modelled.get(i).getTags(), projected.get(i).getTags());
+            assertEquals(modelled.get(i).getMeta(), projected.get(i).getMeta());
+            assertEquals(modelled.get(i).getNodeMeta(), projected.get(i).getNodeMeta());
+        }
+    }
+
+    @Test
+    public void decodesTheNodesInTheOrderOfTheResponse() throws IOException {
+        for (String decoder : asList(HealthResponseDecoder.PROJECTION, HealthResponseDecoder.MODEL)) {
+            final List<DiscoveryResult> nodes = decode(decoder, RESPONSE);
+
+            final Map<String, String> meta = new HashMap<>();
+            meta.put("version", "1.2");
+            meta.put("empty", "");
+            assertEquals(decoder, asList(
+                    new DiscoveryResult("10.0.1.1", 8080, 10, "node-1", asList("v1", "blue"), meta, singletonMap("zone", "a")),
+                    // the address of the node when the service has none, one without weights
+                    new DiscoveryResult("10.0.0.2", 8081, 1, "node-2", emptyList(), emptyMap(), emptyMap()),
+                    new DiscoveryResult("2001:db8::13", 8082, 0, "node-3", emptyList(), emptyMap(), emptyMap())), nodes);
+        }
+    }
+
+    @Test
+    public void decodesAnEmptyResponse() throws IOException {
+        for (String decoder : asList(HealthResponseDecoder.PROJECTION, HealthResponseDecoder.MODEL)) {
+            assertTrue(decoder, decode(decoder, "[]").isEmpty());
+        }
+    }
+
+    @Test
+    public void rejectsMalformedResponses() {
+        for (String decoder : asList(HealthResponseDecoder.PROJECTION, HealthResponseDecoder.MODEL)) {
+            for (String body : asList("{\"Node\":{}}", "[{\"Node\":{\"Node\":\"node-1\"", "[{\"Service\":{\"Port\":\"eighty\"}}]")) {
+                try {
+                    decode(decoder, body);
+                    fail(decoder + " accepted " + body);
+                } catch (IOException expected) {
+                    // the watcher retries
+                }
+            }
+        }
+    }
+
+    @Test(expected = ConsulConfigurationException.class)
+    public void unknownDecoderIsRejected() {
+        HealthResponseDecoder.create("reflection");
+    }
+
+    private static List<DiscoveryResult> decode(final String decoder, final String body) throws IOException {
+        return new ArrayList<>(HealthResponseDecoder.create(decoder).decode(new ByteArrayInputStream(body.getBytes(UTF_8))));
+    }
+}
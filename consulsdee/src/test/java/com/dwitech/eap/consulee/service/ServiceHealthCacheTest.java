@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import com.dwitech.eap.consulee.model.ServiceHealth;
+import com.dwitech.eap.consulee.testing.StubConsulAgent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ServiceHealthCacheTest {
+    private static final int WAIT_SECONDS = 1;
+
+    private StubConsulAgent agent;
+    private ConsulService consulService;
+    private final ServiceHealthCache cache = ServiceHealthCache.getInstance();
+
+    @Before
+    public void setUp() throws IOException {
+        agent = new StubConsulAgent(3);
+        consulService = new ConsulService(agent.getHost(), agent.getPort());
+    }
+
+    @After
+    public void tearDown() {
+        cache.shutdown();
+        agent.close();
+    }
+
+    @Test
+    public void concurrentFirstLookupsShareOneFetch() throws Exception {
+        agent.setLatency(200);
+        final int callers = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = newFixedThreadPool(callers);
+        try {
+            final List<Future<ServiceHealth>> lookups = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                lookups.add(executor.submit(() -> {
+                    start.await();
+                    return cache.getServiceHealth(consulService, "coalesced", WAIT_SECONDS, 0L);
+                }));
+            }
+            start.countDown();
+            final ServiceHealth first = lookups.get(0).get(5, SECONDS);
+            for (Future<ServiceHealth> lookup : lookups) {
+                assertSame(first, lookup.get(5, SECONDS));
+            }
+            assertEquals(3, first.getNodes().size());
+            // the fetch, and at most the first blocking query of the watcher
+            assertTrue(agent.getRequestCount() <= 2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedFirstFetchIsRetriedByTheNextLookup() throws Exception {
+        agent.failNext(1);
+        try {
+            cache.getServiceHealth(consulService, "flaky", WAIT_SECONDS, 0L);
+            fail("the first fetch should have failed");
+        } catch (IOException expected) {
+            // the agent answered 500
+        }
+        assertEquals(3, cache.getServiceHealth(consulService, "flaky", WAIT_SECONDS, 0L).getNodes().size());
+    }
+
+    @Test
+    public void watchPublishesChangedNodes() throws Exception {
+        final ServiceHealth initial = cache.getServiceHealth(consulService, "watched", WAIT_SECONDS, 0L);
+        final BlockingQueue<ServiceHealth> changes = new LinkedBlockingQueue<>();
+        final BlockingQueue<ServiceTopologyChanged> topologyChanges = new LinkedBlockingQueue<>();
+        final Consumer<ServiceHealth> listener = changes::add;
+        final Consumer<ServiceTopologyChanged> topologyListener = topologyChanges::add;
+        cache.addListener(consulService, "watched", listener);
+        cache.addTopologyListener(consulService, "watched", topologyListener);
+        try {
+            agent.setInstances("watched", 5);
+
+            final ServiceHealth changed = nextChange(changes, initial, 5);
+            assertNotNull("the watcher did not publish the change", changed);
+            assertEquals(5, changed.getNodes().size());
+            assertTrue(changed.getIndex() > initial.getIndex());
+            assertSame(changed, cache.getServiceHealth(consulService, "watched", WAIT_SECONDS, 0L));
+
+            final ServiceTopologyChanged topologyChanged = topologyChanges.poll(5, SECONDS);
+            assertNotNull(topologyChanged);
+            assertEquals(2, topologyChanged.getAdded().size());
+            assertTrue(topologyChanged.getRemoved().isEmpty());
+        } finally {
+            cache.removeListener(consulService, "watched", listener);
+            cache.removeTopologyListener(consulService, "watched", topologyListener);
+        }
+    }
+
+    @Test
+    public void watchDoesNotPublishUnchangedNodes() throws Exception {
+        final ServiceHealth initial = cache.getServiceHealth(consulService, "quiet", WAIT_SECONDS, 0L);
+        final BlockingQueue<ServiceHealth> changes = new LinkedBlockingQueue<>();
+        final Consumer<ServiceHealth> listener = changes::add;
+        cache.addListener(consulService, "quiet", listener);
+        try {
+            // another service changing moves the index of the agent, not the nodes of this one
+            agent.setInstances("other", 5);
+            assertNull(nextChange(changes, initial, 2));
+        } finally {
+            cache.removeListener(consulService, "quiet", listener);
+        }
+    }
+
+    // skips the publication of the first fetch, which can reach a listener added after the lookup returned it
+    private static ServiceHealth nextChange(final BlockingQueue<ServiceHealth> changes, final ServiceHealth initial,
+                                            final long timeoutSeconds) throws InterruptedException {
+        final long deadline = System.nanoTime() + SECONDS.toNanos(timeoutSeconds);
+        ServiceHealth published;
+        do {
+            published = changes.poll(deadline - System.nanoTime(), NANOSECONDS);
+        } while (published == initial);
+        return published;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import com.dwitech.eap.consulee.ConsulConfiguration;
+import com.dwitech.eap.consulee.client.ConsulConfig;
+import com.dwitech.eap.consulee.client.ConsulServiceUnavailableException;
+import com.dwitech.eap.consulee.model.ServiceHealth;
+import com.dwitech.eap.consulee.testing.StubConsulAgent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ServiceHealthPublisherTest {
+    private static final String[] PROPERTIES = {"consulHost", "consulPort", "consulWatchWait", "consulBatchWindow"};
+
+    private StubConsulAgent agent;
+    private ConsulServiceDiscovery discovery;
+
+    @Before
+    public void setUp() throws IOException {
+        agent = new StubConsulAgent(3);
+        System.setProperty("consulHost", agent.getHost());
+        System.setProperty("consulPort", agent.getPort());
+        System.setProperty("consulWatchWait", "1");
+        System.setProperty("consulBatchWindow", "0");
+        discovery = new ConsulServiceDiscovery(ConsulConfiguration.reload(), "published", null);
+    }
+
+    @After
+    public void tearDown() {
+        ServiceHealthCache.getInstance().shutdown();
+        agent.close();
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+        ConsulConfiguration.reload();
+    }
+
+    @Test
+    public void publishesNothingBeforeTheFirstRequest() throws InterruptedException {
+        final RecordingSubscriber subscriber = subscribe();
+        assertNull(subscriber.signals.poll(500, MILLISECONDS));
+
+        subscriber.subscription.request(1);
+        assertEquals(3, subscriber.next().getNodes().size());
+    }
+
+    @Test
+    public void publishesEveryChangeWhileThereIsDemand() throws InterruptedException {
+        final RecordingSubscriber subscriber = subscribe();
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(3, subscriber.next().getNodes().size());
+
+        agent.setInstances("published", 4);
+        assertEquals(4, subscriber.next().getNodes().size());
+        agent.setInstances("published", 5);
+        assertEquals(5, subscriber.next().getNodes().size());
+    }
+
+    @Test
+    public void slowSubscriberOnlyGetsTheLatestSnapshot() throws InterruptedException {
+        final RecordingSubscriber subscriber = subscribe();
+        subscriber.subscription.request(1);
+        assertEquals(3, subscriber.next().getNodes().size());
+
+        for (int instances = 4; instances <= 6; instances++) {
+            agent.setInstances("published", instances);
+            awaitNodes(instances);
+        }
+        assertNull(subscriber.signals.poll(200, MILLISECONDS));
+
+        subscriber.subscription.request(5);
+        assertEquals(6, subscriber.next().getNodes().size());
+        assertNull(subscriber.signals.poll(500, MILLISECONDS));
+    }
+
+    @Test
+    public void cancelledSubscriberGetsNothingMore() throws InterruptedException {
+        final RecordingSubscriber subscriber = subscribe();
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(3, subscriber.next().getNodes().size());
+
+        subscriber.subscription.cancel();
+        agent.setInstances("published", 4);
+        awaitNodes(4);
+        assertNull(subscriber.signals.poll(200, MILLISECONDS));
+    }
+
+    @Test
+    public void nonPositiveRequestFailsTheSubscription() throws InterruptedException {
+        final RecordingSubscriber subscriber = subscribe();
+        subscriber.subscription.request(0);
+
+        assertTrue(subscriber.signals.poll(5, SECONDS) instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void undiscoverableServiceFailsTheSubscription() throws InterruptedException {
+        agent.close();
+        final RecordingSubscriber subscriber = subscribe();
+        subscriber.subscription.request(1);
+
+        assertTrue(subscriber.signals.poll(5, SECONDS) instanceof ConsulServiceUnavailableException);
+    }
+
+    @Test
+    public void asyncLookupChoosesAHealthyNode() throws Exception {
+        final ConsulConfig consulConfig = discovery.discoverServiceConfigurationAsync().toCompletableFuture().get(5, SECONDS);
+
+        assertTrue(discovery.discoverServiceHealth().getEndpoints()
+                .contains(consulConfig.getServiceHost(), Integer.parseInt(consulConfig.getServicePort())));
+    }
+
+    @Test
+    public void asyncLookupFailsWithoutAgent() throws Exception {
+        agent.close();
+        try {
+            discovery.discoverServiceHealthAsync().toCompletableFuture().get(5, SECONDS);
+            fail("the service cannot be discovered");
+        } catch (ExecutionException eExc) {
+            assertTrue(eExc.getCause() instanceof ConsulServiceUnavailableException);
+        }
+    }
+
+    private RecordingSubscriber subscribe() throws InterruptedException {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        discovery.watchServiceHealth().subscribe(subscriber);
+        assertNotNull(subscriber.subscribed.poll(5, SECONDS));
+        return subscriber;
+    }
+
+    private void awaitNodes(final int nodes) throws InterruptedException {
+        final long deadline = System.nanoTime() + SECONDS.toNanos(5);
+        while (discovery.discoverServiceHealth().getNodes().size() != nodes && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(nodes, discovery.discoverServiceHealth().getNodes().size());
+    }
+
+    private static final class RecordingSubscriber implements Subscriber<ServiceHealth> {
+        private final BlockingQueue<Subscription> subscribed = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+        private volatile Subscription subscription;
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+            subscribed.add(subscription);
+        }
+
+        @Override
+        public void onNext(final ServiceHealth serviceHealth) {
+            signals.add(serviceHealth);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            signals.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add("complete");
+        }
+
+        private ServiceHealth next() throws InterruptedException {
+            final Object signal = signals.poll(5, SECONDS);
+            if (!(signal instanceof ServiceHealth)) {
+                throw new AssertionError("expected a snapshot but got " + signal);
+            }
+            return (ServiceHealth) signal;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.service;
+
+import com.dwitech.eap.consulee.model.DiscoveryResult;
+import com.dwitech.eap.consulee.model.ServiceHealth;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ServiceHealthSnapshotTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("discovery.snapshot");
+        final Map<String, ServiceHealth> snapshots = new HashMap<>();
+        snapshots.put("orders", new ServiceHealth("orders", 42L, new LinkedHashSet<>(asList(
+                new DiscoveryResult("10.0.0.1", 8080, 3, "node-1", asList("v1", "blue"), singletonMap("version", "1.2"), singletonMap("zone", "a")),
+                new DiscoveryResult("2001:db8::1", 8080, 1, null, emptyList(), emptyMap(), emptyMap()))), 1000L));
+        snapshots.put("payments?&tag=eu", new ServiceHealth("payments", 7L, new LinkedHashSet<>(), 2000L));
+
+        ServiceHealthSnapshot.write(file, snapshots);
+        final Map<String, ServiceHealth> read = ServiceHealthSnapshot.read(file);
+
+        assertEquals(snapshots.keySet(), read.keySet());
+        for (Map.Entry<String, ServiceHealth> snapshot : snapshots.entrySet()) {
+            final ServiceHealth expected = snapshot.getValue();
+            final ServiceHealth actual = read.get(snapshot.getKey());
+            assertEquals(expected.getServiceName(), actual.getServiceName());
+            assertEquals(expected.getIndex(), actual.getIndex());
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getNodes(), actual.getNodes());
+            assertEquals(expected.getNodeList(), actual.getNodeList());
+            assertEquals(expected.getEndpoints(), actual.getEndpoints());
+        }
+    }
+
+    @Test
+    public void missingFileIsEmpty() throws IOException {
+        assertTrue(ServiceHealthSnapshot.read(folder.getRoot().toPath().resolve("missing.snapshot")).isEmpty());
+    }
+
+    @Test
+    public void corruptedFileIsRejected() throws IOException {
+        final Path file = written();
+        final byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 5] ^= 0x5a;
+        Files.write(file, bytes);
+
+        assertRejected(file);
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        final Path file = written();
+        final byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+
+        assertRejected(file);
+    }
+
+    @Test
+    public void fileShorterThanItsHeaderIsRejected() throws IOException {
+        final Path file = written();
+        Files.write(file, Arrays.copyOf(Files.readAllBytes(file), 6));
+
+        assertRejected(file);
+    }
+
+    @Test
+    public void otherFileIsRejected() throws IOException {
+        final Path file = folder.newFile("consul.yml").toPath();
+        Files.write(file, "consul:\n  consulHost: localhost\n".getBytes("UTF-8"));
+
+        assertRejected(file);
+    }
+
+    private Path written() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("discovery.snapshot");
+        ServiceHealthSnapshot.write(file, singletonMap("orders", new ServiceHealth("orders", 42L,
+                new LinkedHashSet<>(asList(new DiscoveryResult("10.0.0.1", 8080), new DiscoveryResult("10.0.0.2", 8080))), 1000L)));
+        return file;
+    }
+
+    private static void assertRejected(final Path file) {
+        try {
+            ServiceHealthSnapshot.read(file);
+            fail(file + " should have been rejected");
+        } catch (IOException expected) {
+            // the cache starts cold
+        }
+    }
+}
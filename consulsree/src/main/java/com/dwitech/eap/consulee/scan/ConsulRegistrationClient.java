@@ -15,137 +15,177 @@
  */
 package com.dwitech.eap.consulee.scan;
 
+import com.dwitech.eap.consulee.ConsulConfiguration;
 import com.dwitech.eap.consulee.ConsulConfigurationException;
 import com.dwitech.eap.consulee.client.ConsulConfig;
-import com.fasterxml.jackson.dataformat.yaml.snakeyaml.Yaml;
-import com.fasterxml.jackson.dataformat.yaml.snakeyaml.error.YAMLException;
+import com.dwitech.eap.consulee.metrics.ConsulMetricsProvider;
 import com.google.common.net.HostAndPort;
 import com.orbitz.consul.AgentClient;
-import com.orbitz.consul.NotRegisteredException;
+import com.orbitz.consul.ConsulException;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import javax.annotation.Resource;
-import javax.ejb.*;
-import java.util.Collections;
-import java.util.Map;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.inject.Inject;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
-import static com.dwitech.eap.consulee.ConsulExtensionHelper.getServiceName;
+import static com.dwitech.eap.consulee.ConsulExtensionHelper.getServiceNames;
 import static com.dwitech.eap.consulee.ConsulExtensionHelper.isConsulEnabled;
 import static com.orbitz.consul.Consul.builder;
 import static java.lang.Integer.valueOf;
-import static java.lang.System.getProperty;
-import static java.lang.Thread.currentThread;
-import static java.util.Calendar.getInstance;
-import static java.util.Optional.ofNullable;
 import static java.util.logging.Logger.getLogger;
 
 /**
- * Registers with Consul and gives heartbeats every 3 second.
+ * Registers the services of the deployment with Consul and keeps their registrations healthy.
+ * Each service enabled with {@code @EnableConsulClient} is configured with its own properties, prefixed by its name.
+ * By default a service gets a TTL check that is passed by heartbeats derived from {@code serviceTTL};
+ * with {@code serviceCheck} set to {@code http} or {@code tcp} the agent checks the service itself
+ * every {@code serviceCheckInterval} seconds and no heartbeat is sent.
+ * The services registered with the same agent share one agent client, and all heartbeats share one thread.
+ * A service the agent fails to register does not fail the deployment: its registration is retried with a backoff
+ * from the heartbeat thread, and its heartbeats start once it is registered.
  * @since 1.0.0
  */
 @Singleton @Startup
 public class ConsulRegistrationClient {
     private static final Logger LOGGER = getLogger("com.dwitech.eap.consulee");
+    private static final String TTL_CHECK = "ttl";
+    private static final String HTTP_CHECK = "http";
+    private static final String TCP_CHECK = "tcp";
+    private static final String DEFAULT_CHECK_INTERVAL = "10";
 
-    private final ConsulConfig consulConfig = new ConsulConfig();
-    private AgentClient agentClient;
+    private final List<ConsulConfig> registrations = new ArrayList<>();
+    private final ConcurrentMap<HostAndPort, AgentClient> agentClients = new ConcurrentHashMap<>();
+    private final HeartbeatScheduler heartbeats = new HeartbeatScheduler();
 
-    @Resource private TimerService timerService;
+    @Inject private ConsulConfiguration configuration;
 
     @PostConstruct
     private void init() {
         LOGGER.config("Checking if Consul is enabled");
         if (isConsulEnabled()) {
-            try {
-                readConfiguration();
-                LOGGER.config(() -> "Registering " + consulConfig.getServiceName());
-                agentClient = builder().withHostAndPort(getConsulHostAndPort()).build().agentClient();
-                register();
-            } catch (ConsulConfigurationException ccExc) {
-                LOGGER.severe(() -> "Consul is enabled but not configured properly: " + ccExc.getMessage());
+            for (final String serviceName : getServiceNames()) {
+                try {
+                    registrations.add(readConfiguration(serviceName));
+                } catch (ConsulConfigurationException ccExc) {
+                    LOGGER.severe(() -> "Consul is enabled but " + serviceName + " is not configured properly: " + ccExc.getMessage());
+                }
             }
+            register();
         } else {
             LOGGER.config("Consul is not enabled. Use @EnableConsulClient!");
         }
     }
 
+    /**
+     * Registers all the configured services and starts heartbeating those with a TTL check.
+     * The services the agent fails to register are registered again later.
+     */
     public void register() {
-        agentClient.register(valueOf(consulConfig.getServicePort()), Long.valueOf(consulConfig.getServiceTTL()), consulConfig.getServiceName(), consulConfig.getServiceId());
-
-        final ScheduleExpression schedule = new ScheduleExpression();
-        schedule.second("*/3").minute("*").hour("*").start(getInstance().getTime());
-
-        final TimerConfig config = new TimerConfig();
-        config.setPersistent(false);
-
-        final Timer timer = timerService.createCalendarTimer(schedule, config);
+        for (final ConsulConfig consulConfig : registrations) {
+            LOGGER.config(() -> "Registering " + consulConfig.getServiceName());
+            final Runnable register = () -> registerService(getAgentClient(consulConfig), consulConfig);
+            final Runnable registered = () -> startHeartbeat(consulConfig, register);
+            try {
+                register.run();
+                registered.run();
+            } catch (ConsulConfigurationException ccExc) {
+                LOGGER.severe(() -> "Consul is enabled but " + consulConfig.getServiceName() + " is not configured properly: " + ccExc.getMessage());
+            } catch (RuntimeException rExc) {
+                LOGGER.warning(() -> consulConfig.getServiceId() + " could not be registered, retrying: " + rExc.getMessage());
+                ConsulMetricsProvider.get().agentError("register", rExc);
+                heartbeats.retryRegistration(consulConfig.getServiceId(), register, registered);
+            }
+        }
+    }
 
-        LOGGER.config(() -> timer.getSchedule().toString());
+    private void startHeartbeat(final ConsulConfig consulConfig, final Runnable register) {
+        if (TTL_CHECK.equals(consulConfig.getServiceCheck())) {
+            heartbeats.schedule(getAgentClient(consulConfig), consulConfig.getServiceId(), Long.parseLong(consulConfig.getServiceTTL()), register);
+        }
     }
 
-    @Timeout
-    public void health(Timer timer) {
-        LOGGER.config(() -> "health update: " + getInstance().getTime());
-        LOGGER.config(() -> "Next: " + timer.getNextTimeout());
-        try {
-            agentClient.pass(consulConfig.getServiceId());
-        } catch (NotRegisteredException nrExc) {
-            nrExc.printStackTrace();
+    private void registerService(final AgentClient agentClient, final ConsulConfig consulConfig) {
+        final int port = valueOf(consulConfig.getServicePort());
+        final String[] tags = getTags(consulConfig);
+        switch (consulConfig.getServiceCheck()) {
+            case TTL_CHECK:
+                agentClient.register(port, Long.parseLong(consulConfig.getServiceTTL()), consulConfig.getServiceName(), consulConfig.getServiceId(), tags);
+                break;
+            case HTTP_CHECK:
+                agentClient.register(port, getCheckUrl(consulConfig), Long.parseLong(consulConfig.getServiceCheckInterval()),
+                        consulConfig.getServiceName(), consulConfig.getServiceId(), tags);
+                break;
+            case TCP_CHECK:
+                agentClient.register(port, HostAndPort.fromParts(consulConfig.getServiceHost(), port), Long.parseLong(consulConfig.getServiceCheckInterval()),
+                        consulConfig.getServiceName(), consulConfig.getServiceId(), tags);
+                break;
+            default:
+                throw new ConsulConfigurationException("Unknown serviceCheck " + consulConfig.getServiceCheck());
         }
     }
 
 	@PreDestroy
 	private void deregister() {
-		LOGGER.config(() -> "Deregistering " + consulConfig.getServiceId());
-        try {
-            agentClient.pass(consulConfig.getServiceId());
-        } catch (NotRegisteredException nrExc) {
-            nrExc.printStackTrace();
+        heartbeats.shutdown();
+        for (final ConsulConfig consulConfig : registrations) {
+            LOGGER.config(() -> "Deregistering " + consulConfig.getServiceId());
+            try {
+                getAgentClient(consulConfig).deregister(consulConfig.getServiceId());
+            } catch (ConsulException cExc) {
+                LOGGER.warning(() -> consulConfig.getServiceId() + " could not be deregistered: " + cExc.getMessage());
+                ConsulMetricsProvider.get().agentError("deregister", cExc);
+            }
         }
     }
 
-    private HostAndPort getConsulHostAndPort() {
-        return HostAndPort.fromParts(consulConfig.getConsulHost(), Integer.parseInt(consulConfig.getConsulPort())).withDefaultPort(8500);
+    private AgentClient getAgentClient(final ConsulConfig consulConfig) {
+        final HostAndPort hostAndPort = HostAndPort.fromParts(consulConfig.getConsulHost(), Integer.parseInt(consulConfig.getConsulPort())).withDefaultPort(8500);
+        return agentClients.computeIfAbsent(hostAndPort, agent -> builder().withHostAndPort(agent).build().agentClient());
     }
 
-    private void readConfiguration() throws ConsulConfigurationException {
-        Map<String, Object> consulConfig = Collections.EMPTY_MAP;
+    private static String[] getTags(final ConsulConfig consulConfig) {
+        final String tags = consulConfig.getServiceTags();
+        return tags == null || tags.trim().isEmpty() ? new String[0] : tags.trim().split("\\s*,\\s*");
+    }
+
+    private static URL getCheckUrl(final ConsulConfig consulConfig) {
         try {
-            final Yaml yaml = new Yaml();
-            final Map<String, Object> props = (Map<String, Object>) yaml.load(currentThread().getContextClassLoader().getResourceAsStream("/consul.yml"));
-            consulConfig = (Map<String, Object>) props.get("consul");
-        } catch (YAMLException yExc) {
-            LOGGER.config(() -> "No configuration file. Using env properties.");
+            return new URL(consulConfig.getServiceCheckUrl());
+        } catch (MalformedURLException muExc) {
+            throw new ConsulConfigurationException("Invalid serviceCheckUrl " + consulConfig.getServiceCheckUrl(), muExc);
         }
+    }
 
-        this.consulConfig.setServiceName(getServiceName());
-
-        this.consulConfig.setServiceId(readProperty("serviceId", consulConfig));
-        //this.consulConfig.setServiceName(readProperty("serviceName", consulConfig));
-        this.consulConfig.setServiceHost(readProperty("serviceHost", consulConfig));
-        this.consulConfig.setServicePort(readProperty("servicePort", consulConfig));
-        this.consulConfig.setServiceTTL(readProperty("serviceTTL", consulConfig));
-
-        this.consulConfig.setConsulHost(readProperty("consulHost", consulConfig));
-        this.consulConfig.setConsulPort(readProperty("consulPort", consulConfig));
+    private ConsulConfig readConfiguration(final String serviceName) throws ConsulConfigurationException {
+        final ConsulConfig consulConfig = new ConsulConfig();
+        consulConfig.setServiceName(serviceName);
+
+        consulConfig.setServiceId(configuration.require("serviceId", serviceName));
+        consulConfig.setServiceHost(configuration.require("serviceHost", serviceName));
+        consulConfig.setServicePort(configuration.require("servicePort", serviceName));
+        consulConfig.setServiceTags(configuration.get("serviceTags", serviceName));
+        consulConfig.setServiceCheck(configuration.get("serviceCheck", serviceName, TTL_CHECK));
+        if (TTL_CHECK.equals(consulConfig.getServiceCheck())) {
+            consulConfig.setServiceTTL(configuration.require("serviceTTL", serviceName));
+        } else {
+            consulConfig.setServiceCheckInterval(configuration.get("serviceCheckInterval", serviceName, DEFAULT_CHECK_INTERVAL));
+        }
+        if (HTTP_CHECK.equals(consulConfig.getServiceCheck())) {
+            consulConfig.setServiceCheckUrl(configuration.require("serviceCheckUrl", serviceName));
+        }
 
-        LOGGER.config(() -> "application config: " + this.consulConfig.toJSON());
-    }
+        consulConfig.setConsulHost(configuration.require("consulHost", serviceName));
+        consulConfig.setConsulPort(configuration.require("consulPort", serviceName));
 
-    private String readProperty(final String key, Map<String, Object> consulConfig) {
-        String property = ofNullable(getProperty(key))
-                .orElseGet(() -> {
-                    String envProp = ofNullable(System.getenv(this.consulConfig.getServiceName() + "." + key))
-                            .orElseGet(() -> {
-                                String confProp = ofNullable(consulConfig.get(key))
-                                        .orElseThrow(() -> new ConsulConfigurationException(key + " must be configured either in consul.yml or as env parameter"))
-                                        .toString();
-                                return confProp;
-                            });
-                    return envProp;
-                });
-        return property;
+        LOGGER.config(() -> "application config: " + consulConfig.toJSON());
+        return consulConfig;
     }
-}
\ No newline at end of file
+}
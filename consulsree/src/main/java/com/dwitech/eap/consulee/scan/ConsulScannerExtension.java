@@ -15,22 +15,34 @@
  */
 package com.dwitech.eap.consulee.scan;
 
+import com.dwitech.eap.consulee.ConsulConfiguration;
+import com.dwitech.eap.consulee.annotation.Consul;
 import com.dwitech.eap.consulee.annotation.EnableConsulClient;
+import com.dwitech.eap.consulee.client.ConsulServiceClient;
+import com.dwitech.eap.consulee.client.ConsulServiceClients;
 
 import javax.enterprise.event.Observes;
 import javax.enterprise.inject.spi.*;
+import java.lang.reflect.Member;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import static com.dwitech.eap.consulee.ConsulExtensionHelper.setConsulEnabled;
-import static com.dwitech.eap.consulee.ConsulExtensionHelper.setServiceName;
+import static com.dwitech.eap.consulee.ConsulExtensionHelper.setServiceNames;
 
 /**
  * CDI Extension that scans for @EnableConsulClient annotations.
+ * Every annotated type contributes a service to register.
+ * The clients injected with @Consul are created once the beans are discovered, and their services discovered ahead of the first call.
  */
 public class ConsulScannerExtension implements Extension {
     private static final Logger LOGGER = Logger.getLogger("com.dwitech.eap.consulee");
 
-    private String serviceName;
+    private final Set<String> serviceNames = new LinkedHashSet<>();
+    private final Map<Member, Consul> consulClients = new LinkedHashMap<>();
     private boolean consulEnabled = false;
 
     void beforeBeanDiscovery(@Observes BeforeBeanDiscovery beforeBeanDiscovery) {
@@ -39,8 +51,13 @@ public class ConsulScannerExtension implements Extension {
 
     void afterBeanDiscovery(@Observes AfterBeanDiscovery afterBeanDiscovery, BeanManager beanManager) {
         LOGGER.config("Discovering Consul clients");
-        setServiceName(serviceName);
+        setServiceNames(serviceNames);
         setConsulEnabled(consulEnabled);
+        if (!consulClients.isEmpty()) {
+            final ConsulConfiguration configuration = ConsulConfiguration.current();
+            consulClients.forEach((member, consul) -> ConsulServiceClients.register(member, consul, configuration));
+            ConsulServiceClients.prewarm(configuration);
+        }
         LOGGER.config("Finished scanning for Consul clients");
     }
 
@@ -50,7 +67,20 @@ public class ConsulScannerExtension implements Extension {
 
         LOGGER.config(() -> "Found @EnableConsulClient annotated class: " + consulAnnotated.getAnnotatedType().getJavaClass().getName());
         consulEnabled = true;
-        serviceName = consulAnnotated.getAnnotatedType().getAnnotation(EnableConsulClient.class).serviceName();
-        LOGGER.config(() -> "Consul Service name is: " + serviceName);
+        final String serviceName = consulAnnotated.getAnnotatedType().getAnnotation(EnableConsulClient.class).serviceName();
+        if (serviceNames.add(serviceName)) {
+            LOGGER.config(() -> "Consul Service name is: " + serviceName);
+        } else {
+            LOGGER.warning(() -> "Consul Service " + serviceName + " is enabled more than once");
+        }
+    }
+
+    <T> void processInjectionPoint(@Observes ProcessInjectionPoint<T, ConsulServiceClient> pip) {
+        final InjectionPoint injectionPoint = pip.getInjectionPoint();
+        final Consul consul = injectionPoint.getAnnotated().getAnnotation(Consul.class);
+        if (consul != null && injectionPoint.getMember() != null) {
+            LOGGER.config(() -> "Found Consul client of " + consul.serviceName() + " injected in " + injectionPoint.getMember());
+            consulClients.put(injectionPoint.getMember(), consul);
+        }
     }
 }
\ No newline at end of file
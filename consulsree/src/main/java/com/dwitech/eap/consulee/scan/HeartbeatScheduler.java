@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.scan;
+
+import com.dwitech.eap.consulee.metrics.ConsulMetrics;
+import com.dwitech.eap.consulee.metrics.ConsulMetricsProvider;
+import com.dwitech.eap.consulee.service.DaemonThreadFactory;
+import com.orbitz.consul.AgentClient;
+import com.orbitz.consul.NotRegisteredException;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * Passes the TTL checks of registered services from a single daemon thread.
+ * A service is heartbeated every third of its TTL, give or take a tenth so that nodes started together
+ * do not hit the agent in lockstep. A failed heartbeat is retried after a second, then backs off up to
+ * the regular interval; a service the agent no longer knows, e.g. after an agent restart, is registered again.
+ * A service whose first registration failed is registered again from the same thread, backing off up to a minute.
+ * @since 1.0.0
+ */
+final class HeartbeatScheduler {
+    private static final Logger LOGGER = getLogger("com.dwitech.eap.consulee");
+    private static final long RETRY_DELAY_MILLIS = 1000L;
+    private static final long MAX_REGISTRATION_DELAY_MILLIS = 60000L;
+
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("consulee-heartbeat-"));
+
+    HeartbeatScheduler() {
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Starts heartbeating a service.
+     * @param agentClient the client of the agent the service is registered with
+     * @param serviceId the id of the service
+     * @param ttlSeconds the TTL of the check of the service
+     * @param register registers the service again
+     */
+    void schedule(final AgentClient agentClient, final String serviceId, final long ttlSeconds, final Runnable register) {
+        final Heartbeat heartbeat = new Heartbeat(agentClient, serviceId, Math.max(RETRY_DELAY_MILLIS, SECONDS.toMillis(ttlSeconds) / 3), register);
+        LOGGER.config(() -> "heartbeating " + serviceId + " every " + heartbeat.intervalMillis + "ms");
+        executor.execute(heartbeat);
+    }
+
+    /**
+     * Registers a service again until the agent accepts it.
+     * @param serviceId the id of the service
+     * @param register registers the service, failing with a runtime exception
+     * @param registered run once the service is registered, e.g. to start heartbeating it
+     */
+    void retryRegistration(final String serviceId, final Runnable register, final Runnable registered) {
+        try {
+            executor.schedule(new Registration(serviceId, register, registered), RETRY_DELAY_MILLIS, MILLISECONDS);
+        } catch (RejectedExecutionException reExc) {
+            LOGGER.config(() -> "not registering " + serviceId + " again, shutting down");
+        }
+    }
+
+    /**
+     * Stops all the heartbeats.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private final class Registration implements Runnable {
+        private final String serviceId;
+        private final Runnable register;
+        private final Runnable registered;
+        private long retryDelay = RETRY_DELAY_MILLIS;
+
+        private Registration(final String serviceId, final Runnable register, final Runnable registered) {
+            this.serviceId = serviceId;
+            this.register = register;
+            this.registered = registered;
+        }
+
+        @Override
+        public void run() {
+            try {
+                register.run();
+            } catch (RuntimeException rExc) {
+                LOGGER.warning(() -> "Registration of " + serviceId + " failed: " + rExc.getMessage());
+                ConsulMetricsProvider.get().agentError("register", rExc);
+                retryDelay = Math.min(retryDelay * 2, MAX_REGISTRATION_DELAY_MILLIS);
+                try {
+                    executor.schedule(this, retryDelay, MILLISECONDS);
+                } catch (RejectedExecutionException reExc) {
+                    LOGGER.config(() -> "stopped registering " + serviceId);
+                }
+                return;
+            }
+            LOGGER.info(() -> serviceId + " registered");
+            registered.run();
+        }
+    }
+
+    private final class Heartbeat implements Runnable {
+        private final AgentClient agentClient;
+        private final String serviceId;
+        private final long intervalMillis;
+        private final Runnable register;
+        private long retryDelay = RETRY_DELAY_MILLIS;
+
+        private Heartbeat(final AgentClient agentClient, final String serviceId, final long intervalMillis, final Runnable register) {
+            this.agentClient = agentClient;
+            this.serviceId = serviceId;
+            this.intervalMillis = intervalMillis;
+            this.register = register;
+        }
+
+        @Override
+        public void run() {
+            final ConsulMetrics metrics = ConsulMetricsProvider.get();
+            final long start = System.nanoTime();
+            long delay;
+            try {
+                agentClient.pass(serviceId);
+                metrics.heartbeat(serviceId, System.nanoTime() - start);
+                retryDelay = RETRY_DELAY_MILLIS;
+                final long jitter = intervalMillis / 10;
+                delay = intervalMillis + ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+            } catch (NotRegisteredException nrExc) {
+                LOGGER.warning(() -> serviceId + " is not registered anymore, registering it again");
+                metrics.agentError("pass", nrExc);
+                metrics.missedHeartbeat(serviceId);
+                reregister();
+                delay = backOff();
+            } catch (RuntimeException rExc) {
+                LOGGER.warning(() -> "Heartbeat of " + serviceId + " failed: " + rExc.getMessage());
+                metrics.agentError("pass", rExc);
+                metrics.missedHeartbeat(serviceId);
+                delay = backOff();
+            }
+
+            try {
+                executor.schedule(this, delay, MILLISECONDS);
+            } catch (RejectedExecutionException reExc) {
+                LOGGER.config(() -> "stopped heartbeating " + serviceId);
+            }
+        }
+
+        private void reregister() {
+            try {
+                register.run();
+            } catch (RuntimeException rExc) {
+                LOGGER.warning(() -> "Registration of " + serviceId + " failed: " + rExc.getMessage());
+                ConsulMetricsProvider.get().agentError("register", rExc);
+            }
+        }
+
+        private long backOff() {
+            final long delay = retryDelay;
+            retryDelay = Math.min(retryDelay * 2, intervalMillis);
+            return delay;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Daniel Wamara (dwamara@dwitech.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dwitech.eap.consulee.scan;
+
+import com.dwitech.eap.consulee.testing.StubConsulAgent;
+import com.google.common.net.HostAndPort;
+import com.orbitz.consul.AgentClient;
+import com.orbitz.consul.Consul;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeartbeatSchedulerTest {
+    private StubConsulAgent agent;
+    private AgentClient agentClient;
+    private final HeartbeatScheduler heartbeats = new HeartbeatScheduler();
+
+    @Before
+    public void setUp() throws IOException {
+        agent = new StubConsulAgent(0);
+        agentClient = Consul.builder().withHostAndPort(HostAndPort.fromParts(agent.getHost(), Integer.parseInt(agent.getPort()))).build().agentClient();
+    }
+
+    @After
+    public void tearDown() {
+        heartbeats.shutdown();
+        agent.close();
+    }
+
+    @Test
+    public void heartbeatsEveryThirdOfTheTtlGiveOrTakeATenth() throws InterruptedException {
+        agent.register("orders-1", "orders", "", 8080);
+        final long start = System.nanoTime();
+        heartbeats.schedule(agentClient, "orders-1", 3, () -> {});
+
+        final List<Long> passes = passes("service:orders-1", start, 3500);
+        assertEquals(passes.toString(), 4, passes.size());
+        assertTrue(passes.toString(), passes.get(0) < 200);
+        for (int i = 1; i < passes.size(); i++) {
+            final long interval = passes.get(i) - passes.get(i - 1);
+            assertTrue(passes.toString(), interval >= 880 && interval <= 1150);
+        }
+    }
+
+    @Test
+    public void failedHeartbeatsBackOff() throws InterruptedException {
+        agent.register("orders-1", "orders", "", 8080);
+        agent.failNext(2);
+        final long requests = agent.getRequestCount();
+        final long start = System.nanoTime();
+        // every 3s, the failed heartbeats being retried after 1s then 2s
+        heartbeats.schedule(agentClient, "orders-1", 9, () -> {});
+
+        final List<Long> passes = passes("service:orders-1", start, 3800);
+        assertEquals(passes.toString(), 1, passes.size());
+        assertTrue(passes.toString(), passes.get(0) >= 2800);
+        assertEquals(3, agent.getRequestCount() - requests);
+    }
+
+    @Test
+    public void registersAgainAServiceTheAgentForgot() throws InterruptedException {
+        final AtomicInteger registrations = new AtomicInteger();
+        final long start = System.nanoTime();
+        // as after a restart of the agent, the service is not registered anymore
+        heartbeats.schedule(agentClient, "orders-1", 3, () -> {
+            registrations.incrementAndGet();
+            agent.register("orders-1", "orders", "", 8080);
+        });
+
+        final List<Long> passes = passes("service:orders-1", start, 1600);
+        assertEquals(1, registrations.get());
+        assertEquals(passes.toString(), 1, passes.size());
+        assertTrue(passes.toString(), passes.get(0) >= 900);
+    }
+
+    @Test
+    public void failedRegistrationsAreRetriedWithBackOff() throws InterruptedException {
+        final List<Long> attempts = new CopyOnWriteArrayList<>();
+        final CountDownLatch registered = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        heartbeats.retryRegistration("orders-1", () -> {
+            attempts.add(NANOSECONDS.toMillis(System.nanoTime() - start));
+            if (attempts.size() == 1) {
+                throw new IllegalStateException("agent unavailable");
+            }
+        }, registered::countDown);
+
+        assertTrue(registered.await(5, SECONDS));
+        assertEquals(attempts.toString(), 2, attempts.size());
+        assertTrue(attempts.toString(), attempts.get(0) >= 950 && attempts.get(0) < 1500);
+        final long retry = attempts.get(1) - attempts.get(0);
+        assertTrue(attempts.toString(), retry >= 1950 && retry < 2500);
+    }
+
+    @Test
+    public void noRegistrationIsRetriedOnceShutDown() throws InterruptedException {
+        final AtomicInteger attempts = new AtomicInteger();
+        heartbeats.retryRegistration("orders-1", attempts::incrementAndGet, () -> {});
+        heartbeats.shutdown();
+
+        Thread.sleep(1300);
+        assertEquals(0, attempts.get());
+    }
+
+    // the times, in ms since start, at which the check was passed
+    private List<Long> passes(final String checkId, final long start, final long durationMillis) throws InterruptedException {
+        final List<Long> passes = new ArrayList<>();
+        long count = 0;
+        long elapsed;
+        while ((elapsed = NANOSECONDS.toMillis(System.nanoTime() - start)) < durationMillis) {
+            final long current = agent.getCheckPasses(checkId);
+            for (; count < current; count++) {
+                passes.add(elapsed);
+            }
+            Thread.sleep(5);
+        }
+        return passes;
+    }
+}